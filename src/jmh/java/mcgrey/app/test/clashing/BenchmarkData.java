@@ -0,0 +1,82 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the inputs of the benchmarks.
+ */
+final class BenchmarkData {
+    /**
+     * The mean duration of an activity, 30 minutes.
+     */
+    static final long MEAN_DURATION = 30 * 60 * 1000L;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates activities spread evenly so that on average {@code density} of them overlap at any instant.
+     *
+     * @param count   The number of activities.
+     * @param density The mean number of overlapping activities.
+     * @param seed    The seed of the generator.
+     * @return The activities.
+     */
+    static List<Activity> activities(int count, int density, long seed) {
+        final Random random = new Random(seed);
+        final long span = count * MEAN_DURATION / density;
+
+        final List<Activity> activities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final long start = (long) (random.nextDouble() * span);
+            final long end = start + 1 + (long) (random.nextDouble() * 2 * MEAN_DURATION);
+            activities.add(new Activity(new Instant(start), new Instant(end), "Activity " + i));
+        }
+        return activities;
+    }
+
+    /**
+     * Generates activities that all overlap at noon of a day, like all-hands meetings.
+     *
+     * @param count The number of activities.
+     * @param seed  The seed of the generator.
+     * @return The activities.
+     */
+    static List<Activity> allHands(int count, long seed) {
+        final Random random = new Random(seed);
+        final long noon = 12 * 3600 * 1000L;
+
+        final List<Activity> activities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final long start = noon - (long) (random.nextDouble() * noon);
+            final long end = noon + (long) (random.nextDouble() * noon);
+            activities.add(new Activity(start, end, "Activity " + i));
+        }
+        return activities;
+    }
+
+    static List<IntervalTree.IntervalData<Activity>> intervals(List<Activity> activities) {
+        final List<IntervalTree.IntervalData<Activity>> intervals = new ArrayList<>(activities.size());
+        for (Activity activity : activities) {
+            intervals.add(new IntervalTree.IntervalData<>(
+                    activity.getStartMillis(), activity.getEndMillis(), activity));
+        }
+        return intervals;
+    }
+
+    /**
+     * Generates random instants between start and end.
+     */
+    static long[] probes(int count, long start, long end, long seed) {
+        final Random random = new Random(seed);
+        final long[] probes = new long[count];
+        for (int i = 0; i < count; i++) {
+            probes[i] = start + (long) (random.nextDouble() * (end - start));
+        }
+        return probes;
+    }
+}
@@ -0,0 +1,76 @@
+package mcgrey.app.test.clashing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the clash checks of the proposed bookings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClashBenchmark {
+    /**
+     * The number of activities.
+     */
+    @Param({"1000", "100000", "10000000"})
+    public int activities;
+
+    /**
+     * The mean number of overlapping activities.
+     */
+    @Param({"1", "10", "100"})
+    public int density;
+
+    private Schedule schedule;
+    private Activity candidate;
+    private List<Activity> candidates;
+
+    @Setup
+    public void setUp() {
+        schedule = new Schedule(BenchmarkData.activities(activities, density, 1));
+        final long middle = activities * BenchmarkData.MEAN_DURATION / density / 2;
+        candidate = new Activity(middle, middle + 3600 * 1000L, "Candidate");
+        // an hour long booking proposed every 15 minutes of a few days
+        candidates = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final long start = middle + i * 15 * 60 * 1000L;
+            candidates.add(new Activity(start, start + 3600 * 1000L, "Candidate " + i));
+        }
+    }
+
+    @Benchmark
+    public List<Activity> getClashes() {
+        return schedule.getClashes(candidate);
+    }
+
+    @Benchmark
+    public boolean clashes() {
+        return schedule.clashes(candidate);
+    }
+
+    @Benchmark
+    public int countClashes() {
+        return schedule.countClashes(candidate);
+    }
+
+    @Benchmark
+    public List<List<Activity>> getClashesBatch() {
+        return schedule.getClashes(candidates);
+    }
+
+    @Benchmark
+    public List<List<Activity>> getClashesEach() {
+        final List<List<Activity>> result = new ArrayList<>(candidates.size());
+        for (Activity candidate : candidates) {
+            result.add(schedule.getClashes(candidate));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding a meeting time for a set of attendees against scanning the layouts of their schedules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FreeSlotsBenchmark {
+    /**
+     * The number of attendees.
+     */
+    @Param({"2", "20"})
+    public int attendees;
+
+    /**
+     * The number of activities of an attendee.
+     */
+    @Param({"10000"})
+    public int activities;
+
+    private final Duration slotSize = Duration.standardMinutes(15);
+    private final Duration duration = Duration.standardHours(1);
+    private List<Schedule> schedules;
+    private Interval window;
+
+    @Setup
+    public void setUp() {
+        schedules = new ArrayList<>();
+        for (int i = 0; i < attendees; i++) {
+            schedules.add(new Schedule(BenchmarkData.activities(activities, 1, i)));
+        }
+        final long middle = activities * BenchmarkData.MEAN_DURATION / 2;
+        window = new Interval(middle, middle + Duration.standardDays(7).getMillis());
+    }
+
+    @Benchmark
+    public List<Interval> find() {
+        return FreeSlots.find(schedules, window, duration, 10);
+    }
+
+    @Benchmark
+    public Interval findEarliest() {
+        return FreeSlots.findEarliest(schedules, window, duration);
+    }
+
+    /**
+     * Lays out the window of every schedule and looks for the runs of the slots free in all of them.
+     */
+    @Benchmark
+    public List<Interval> findByLayout() {
+        final int count = (int) (window.toDurationMillis() / slotSize.getMillis());
+        final boolean[] busy = new boolean[count];
+        for (Schedule schedule : schedules) {
+            for (Schedule.TimeSlot slot : schedule.getSlotsBy(slotSize, window).getOccupiedTimeSlots()) {
+                final int index = (int) ((slot.getInterval().getStartMillis() - window.getStartMillis()) / slotSize.getMillis());
+                if (index >= 0 && index < count) {
+                    busy[index] = true;
+                }
+            }
+        }
+
+        final List<Interval> gaps = new ArrayList<>();
+        final int needed = (int) (duration.getMillis() / slotSize.getMillis());
+        for (int i = 0, run = 0; i < count && gaps.size() < 10; i++) {
+            run = busy[i] ? 0 : run + 1;
+            if (run == needed) {
+                final long end = window.getStartMillis() + (i + 1) * slotSize.getMillis();
+                gaps.add(new Interval(end - duration.getMillis(), end));
+                run = 0;
+            }
+        }
+        return gaps;
+    }
+}
@@ -0,0 +1,209 @@
+package mcgrey.app.test.clashing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of the interval indexes and their range and stabbing queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntervalTreeBenchmark {
+    private static final int PROBES = 1024;
+    private static final int SLOTS = 1024;
+    private static final long SLOT_SIZE = 60 * 1000L;
+
+    /**
+     * The number of activities.
+     */
+    @Param({"1000", "100000", "10000000"})
+    public int activities;
+
+    /**
+     * The mean number of overlapping activities.
+     */
+    @Param({"1", "10", "100"})
+    public int density;
+
+    /**
+     * The length of the range queries in milliseconds.
+     */
+    @Param({"3600000"})
+    public long range;
+
+    private List<IntervalTree.IntervalData<Activity>> intervals;
+    private IntervalTree<Activity> tree;
+    private DynamicIntervalTree<Activity> dynamicTree;
+    private ColumnarIntervalIndex<Activity> columnarIndex;
+    private File mappedFile;
+    private MappedIntervalIndex<Activity> mappedIndex;
+    private long[] probes;
+    private final long[] slotStarts = new long[SLOTS];
+    private final long[] slotEnds = new long[SLOTS];
+    private int next;
+    private final Counter counter = new Counter();
+
+    @Setup
+    public void setUp() throws IOException {
+        intervals = BenchmarkData.intervals(BenchmarkData.activities(activities, density, 1));
+        tree = new IntervalTree<>(intervals);
+        dynamicTree = new DynamicIntervalTree<>(intervals);
+        columnarIndex = new ColumnarIntervalIndex<>(intervals);
+        mappedFile = File.createTempFile("activities", ".idx");
+        columnarIndex.write(mappedFile, MappedIntervalIndex.ACTIVITIES);
+        mappedIndex = new MappedIntervalIndex<>(mappedFile, MappedIntervalIndex.ACTIVITIES);
+        probes = BenchmarkData.probes(PROBES, tree.getStart(), tree.getEnd(), 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mappedFile.delete();
+    }
+
+    private long probe() {
+        return probes[next++ & (PROBES - 1)];
+    }
+
+    @Benchmark
+    public IntervalTree<Activity> build() {
+        return new IntervalTree<>(intervals);
+    }
+
+    @Benchmark
+    public DynamicIntervalTree<Activity> buildDynamic() {
+        return new DynamicIntervalTree<>(intervals);
+    }
+
+    @Benchmark
+    public ColumnarIntervalIndex<Activity> buildColumnar() {
+        return new ColumnarIntervalIndex<>(intervals);
+    }
+
+    @Benchmark
+    public IntervalTree.IntervalData<Activity> rangeQuery() {
+        final long start = probe();
+        return tree.query(start, start + range);
+    }
+
+    @Benchmark
+    public long rangeVisitor() {
+        final long start = probe();
+        counter.hits = 0;
+        tree.query(start, start + range, counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public IntervalTree.IntervalData<Activity> stabbingQuery() {
+        return tree.query(probe());
+    }
+
+    @Benchmark
+    public long stabbingVisitor() {
+        counter.hits = 0;
+        tree.query(probe(), counter);
+        return counter.hits;
+    }
+
+    /**
+     * Queries a block of consecutive one minute slots one by one, like the slot loop of a layout.
+     */
+    @Benchmark
+    public long slotVisitors() {
+        final long start = probe();
+        counter.hits = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            tree.query(start + i * SLOT_SIZE, start + (i + 1) * SLOT_SIZE - 1, counter);
+        }
+        return counter.hits;
+    }
+
+    /**
+     * Queries the same block of slots with one batched traversal.
+     */
+    @Benchmark
+    public long slotsBatched() {
+        final long start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            slotStarts[i] = start + i * SLOT_SIZE;
+            slotEnds[i] = slotStarts[i] + SLOT_SIZE - 1;
+        }
+        counter.hits = 0;
+        tree.query(slotStarts, slotEnds, counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public long dynamicRangeVisitor() {
+        final long start = probe();
+        counter.hits = 0;
+        dynamicTree.query(start, start + range, counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public long dynamicStabbingVisitor() {
+        counter.hits = 0;
+        dynamicTree.query(probe(), counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public long columnarRangeVisitor() {
+        final long start = probe();
+        counter.hits = 0;
+        columnarIndex.query(start, start + range, counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public long columnarStabbingVisitor() {
+        counter.hits = 0;
+        columnarIndex.query(probe(), counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public MappedIntervalIndex<Activity> openMapped() throws IOException {
+        return new MappedIntervalIndex<>(mappedFile, MappedIntervalIndex.ACTIVITIES);
+    }
+
+    @Benchmark
+    public long mappedRangeVisitor() {
+        final long start = probe();
+        counter.hits = 0;
+        mappedIndex.query(start, start + range, counter);
+        return counter.hits;
+    }
+
+    @Benchmark
+    public long mappedStabbingVisitor() {
+        counter.hits = 0;
+        mappedIndex.query(probe(), counter);
+        return counter.hits;
+    }
+
+    private static class Counter implements IntervalTree.Visitor<Activity>, IntervalTree.RangeVisitor<Activity> {
+        private long hits;
+
+        @Override
+        public boolean visit(long start, long end, Activity value) {
+            hits++;
+            return true;
+        }
+
+        @Override
+        public boolean visit(int range, long start, long end, Activity value) {
+            hits++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package mcgrey.app.test.clashing;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of the interval tree from activities that all overlap, so they fall into one node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntervalTreeBuildBenchmark {
+    /**
+     * The number of activities.
+     */
+    @Param({"1000", "5000", "20000"})
+    public int activities;
+
+    private List<IntervalTree.IntervalData<Activity>> intervals;
+
+    @Setup
+    public void setUp() {
+        intervals = BenchmarkData.intervals(BenchmarkData.allHands(activities, 1));
+    }
+
+    @Benchmark
+    public IntervalTree<Activity> buildHighOverlap() {
+        return new IntervalTree<>(intervals);
+    }
+}
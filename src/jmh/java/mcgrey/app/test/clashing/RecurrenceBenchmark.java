@@ -0,0 +1,87 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the schedules of daily recurring activities kept as recurrences against the same schedules with every
+ * occurrence materialized.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecurrenceBenchmark {
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    /**
+     * The number of the daily recurring activities, each one recurs for a year.
+     */
+    @Param({"10", "1000"})
+    public int recurrences;
+
+    private final Duration slotSize = Duration.standardMinutes(15);
+    private List<Recurrence> daily;
+    private List<Activity> occurrences;
+    private Schedule recurring;
+    private Schedule materialized;
+    private Interval week;
+    private Activity candidate;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        daily = new ArrayList<>();
+        occurrences = new ArrayList<>();
+        for (int i = 0; i < recurrences; i++) {
+            final long start = (long) (random.nextDouble() * DAY);
+            final Activity first = new Activity(start, start + 1 + (long) (random.nextDouble() * 2 * BenchmarkData.MEAN_DURATION), "Daily " + i);
+            final Recurrence recurrence = new Recurrence(first, new Duration(DAY), 365);
+            daily.add(recurrence);
+            occurrences.addAll(recurrence.getOccurrences(new Interval(0, 366 * DAY)));
+        }
+        recurring = new Schedule(Collections.<Activity>emptyList(), daily);
+        materialized = new Schedule(occurrences);
+        week = new Interval(180 * DAY, 187 * DAY);
+        candidate = new Activity(183 * DAY, 183 * DAY + 3600 * 1000L, "Candidate");
+    }
+
+    @Benchmark
+    public Schedule build() {
+        return new Schedule(Collections.<Activity>emptyList(), daily);
+    }
+
+    @Benchmark
+    public Schedule buildMaterialized() {
+        return new Schedule(occurrences);
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsByWeek() {
+        return recurring.getSlotsBy(slotSize, week);
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsByWeekMaterialized() {
+        return materialized.getSlotsBy(slotSize, week);
+    }
+
+    @Benchmark
+    public List<Activity> getClashes() {
+        return recurring.getClashes(candidate);
+    }
+
+    @Benchmark
+    public List<Activity> getClashesMaterialized() {
+        return materialized.getClashes(candidate);
+    }
+}
@@ -0,0 +1,87 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cross-resource queries of the resource schedule against asking the schedule of every resource.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResourceScheduleBenchmark {
+    /**
+     * The number of resources.
+     */
+    @Param({"100", "5000"})
+    public int resources;
+
+    /**
+     * The number of activities of a resource.
+     */
+    @Param({"200"})
+    public int activities;
+
+    private ForkJoinPool pool;
+    private Map<Integer, List<Activity>> shards;
+    private ResourceSchedule<Integer> schedule;
+    private Interval window;
+    private Activity candidate;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool();
+        shards = new LinkedHashMap<>();
+        for (int i = 0; i < resources; i++) {
+            shards.put(i, BenchmarkData.activities(activities, 1, i));
+        }
+        schedule = new ResourceSchedule<>(shards, pool);
+        final long middle = activities * BenchmarkData.MEAN_DURATION / 2;
+        window = new Interval(middle, middle + 3600 * 1000L);
+        candidate = new Activity(middle, middle + 3600 * 1000L - 1, "Candidate");
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Set<Integer> getBusy() {
+        return schedule.getBusy(window);
+    }
+
+    @Benchmark
+    public Set<Integer> getBusyByShard() {
+        final Set<Integer> busy = new HashSet<>();
+        for (Integer resource : shards.keySet()) {
+            if (schedule.getSchedule(resource).clashes(candidate)) {
+                busy.add(resource);
+            }
+        }
+        return busy;
+    }
+
+    @Benchmark
+    public Set<Integer> getBusyThroughout() {
+        return schedule.getBusyThroughout(window);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ResourceSchedule<Integer> build() {
+        return new ResourceSchedule<>(shards, pool);
+    }
+}
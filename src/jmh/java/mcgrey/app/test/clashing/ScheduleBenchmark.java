@@ -0,0 +1,72 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the layouts of a schedule that don't depend on the engine, see {@link ScheduleEngineBenchmark} for the
+ * ones that do. The default sizes keep a run short, larger ones are given on the command line, e.g.
+ * {@code -p activities=10000000 -p slotSize=60000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScheduleBenchmark {
+    /**
+     * The number of activities.
+     */
+    @Param({"1000", "100000"})
+    public int activities;
+
+    /**
+     * The mean number of overlapping activities.
+     */
+    @Param({"1", "10", "100"})
+    public int density;
+
+    /**
+     * The size of a time slot in milliseconds: 5 minutes and 1 hour.
+     */
+    @Param({"300000", "3600000"})
+    public long slotSize;
+
+    private Schedule schedule;
+    private Duration slotDuration;
+    private Interval week;
+    private LayoutCache cache;
+    private Duration day;
+
+    @Setup
+    public void setUp() {
+        schedule = new Schedule(BenchmarkData.activities(activities, density, 1));
+        slotDuration = new Duration(slotSize);
+        // a week in the middle of the schedule
+        final long middle = activities * BenchmarkData.MEAN_DURATION / density / 2;
+        week = new Interval(middle, middle + 7 * 24 * 3600 * 1000L);
+        cache = LayoutCache.ofSize(16);
+        day = new Duration(24 * 3600 * 1000L);
+        // the kept layout the day layout is derived from
+        schedule.getSlotsBy(slotDuration);
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsByWeek() {
+        return schedule.getSlotsBy(slotDuration, week);
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsByDayDerived() {
+        return schedule.getSlotsBy(day);
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsByCached() {
+        return cache.getSlotsBy(schedule, slotDuration);
+    }
+}
@@ -0,0 +1,65 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full layout of a schedule into time slots by each engine, sequential and in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScheduleEngineBenchmark {
+    /**
+     * The number of activities.
+     */
+    @Param({"1000", "100000"})
+    public int activities;
+
+    /**
+     * The mean number of overlapping activities.
+     */
+    @Param({"1", "10", "100"})
+    public int density;
+
+    /**
+     * The size of a time slot in milliseconds, 5 minutes.
+     */
+    @Param({"300000"})
+    public long slotSize;
+
+    @Param({"TREE", "SWEEP"})
+    public Schedule.Engine engine;
+
+    private Schedule schedule;
+    private Duration slotDuration;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        schedule = new Schedule(BenchmarkData.activities(activities, density, 1));
+        slotDuration = new Duration(slotSize);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsBy() {
+        return schedule.getSlotsBy(slotDuration, engine);
+    }
+
+    @Benchmark
+    public Schedule.ScheduleLayout getSlotsByInParallel() {
+        return schedule.getSlotsBy(slotDuration, engine, pool);
+    }
+}
@@ -1,36 +1,81 @@
 package mcgrey.app.test.clashing;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import org.joda.time.Interval;
 import org.joda.time.ReadableDuration;
 import org.joda.time.ReadableInstant;
 import org.joda.time.ReadableInterval;
 
-import java.util.Objects;
-
 /**
- * This is a simple wrapper against {@link Interval} that also contains a name of the activity.
+ * This is an activity: an interval of time with a name. It keeps the bounds as epoch milliseconds and the name as an
+ * interned string, so it takes 32 bytes of the heap with compressed references, and {@link #equals(Object)},
+ * {@link #hashCode()} and {@link #compareTo(Activity)} don't allocate. The {@link Interval} is created on request.
+ * <p/>
+ * The names are interned weakly, so the same name is stored once however many activities have it, and a name is
+ * collected once no activity has it.
  */
 public class Activity implements Comparable<Activity> {
-    private Interval interval;
-    private String name;
+    private static final Interner<String> names = Interners.newWeakInterner();
+
+    private final long start;
+    private final long end;
+    private final String name;
 
-    public Activity(Interval interval, String name) {
-        this.interval = interval;
-        this.name = name;
+    public Activity(ReadableInterval interval, String name) {
+        this(interval.getStartMillis(), interval.getEndMillis(), name);
     }
 
     public Activity(ReadableInstant start, ReadableInstant end, String name) {
-        this.name = name;
-        interval = new Interval(start, end);
+        this(new Interval(start, end), name);
     }
 
     public Activity(ReadableInstant start, ReadableDuration duration, String name) {
-        this.name = name;
-        interval = new Interval(start, duration);
+        this(new Interval(start, duration), name);
+    }
+
+    /**
+     * @param start The start in epoch milliseconds.
+     * @param end   The end in epoch milliseconds.
+     * @param name  The name of the activity.
+     * @throws IllegalArgumentException if the end is before the start.
+     */
+    public Activity(long start, long end, String name) {
+        if (end < start) {
+            throw new IllegalArgumentException("The end instant must be greater or equal to the start");
+        }
+        this.start = start;
+        this.end = end;
+        this.name = name == null ? null : names.intern(name);
+    }
+
+    private Activity(long start, long end, Activity activity) {
+        this.start = start;
+        this.end = end;
+        this.name = activity.name;
     }
 
+    /**
+     * @param offset The offset in milliseconds.
+     * @return the activity with the same name moved by the offset, without looking the name up.
+     */
+    Activity shift(long offset) {
+        return new Activity(start + offset, end + offset, this);
+    }
+
+    /**
+     * @return a new interval of the activity in the ISO chronology of the default time zone.
+     */
     public ReadableInterval getInterval() {
-        return interval;
+        return new Interval(start, end);
+    }
+
+    public long getStartMillis() {
+        return start;
+    }
+
+    public long getEndMillis() {
+        return end;
     }
 
     public String getName() {
@@ -39,7 +84,9 @@ public class Activity implements Comparable<Activity> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(interval, name);
+        int result = (int) (start ^ (start >>> 32));
+        result = 31 * result + (int) (end ^ (end >>> 32));
+        return 31 * result + (name == null ? 0 : name.hashCode());
     }
 
     @Override
@@ -47,9 +94,8 @@ public class Activity implements Comparable<Activity> {
         if (obj instanceof Activity) {
             Activity that = (Activity) obj;
 
-            return Objects.equals(that.interval.getStart(), interval.getStart())
-                    && Objects.equals(that.interval.getEnd(), interval.getEnd())
-                    && Objects.equals(that.name, name);
+            // the names are interned
+            return that.start == start && that.end == end && that.name == name;
         } else {
             return false;
         }
@@ -57,7 +103,8 @@ public class Activity implements Comparable<Activity> {
 
     @Override
     public String toString() {
-        return String.format("'%s' from [%s] to [%s]", name, interval.getStart(), interval.getEnd());
+        final ReadableInterval interval = getInterval();
+        return String.format("'%s' from [%s] to [%s]", getName(), interval.getStart(), interval.getEnd());
     }
 
     @Override
@@ -66,30 +113,13 @@ public class Activity implements Comparable<Activity> {
             throw new NullPointerException("It is impossible to compare with NULL!");
         }
 
-        final ReadableInterval thisInterval = this.getInterval();
-        final ReadableInterval thatInterval = that.getInterval();
-
-        final long thisStart = thisInterval.getStartMillis();
-        final long thatStart = thatInterval.getStartMillis();
-        final long startDelta = thisStart - thatStart;
-
-        final long thisEnd = thisInterval.getEndMillis();
-        final long thatEnd = thatInterval.getEndMillis();
-        final long endDelta = thisEnd - thatEnd;
-
-        if (startDelta > 0) {
-            return 1;
-        } else if (startDelta < 0) {
-            return -1;
-        } else { // startDelta == 0
-            if (endDelta > 0) {
-                return -1;
-            } else if (endDelta < 0) {
-                return 1;
-            }
+        if (this.start != that.start) {
+            return this.start < that.start ? -1 : 1;
+        }
+        if (this.end != that.end) {
+            return this.end > that.end ? -1 : 1;
         }
 
         return 0;
     }
-
 }
@@ -0,0 +1,103 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import org.joda.time.Interval;
+import org.joda.time.ReadableInterval;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This is a group of activities that clash with each other directly or through other activities of the group, a
+ * connected component of the overlap graph. Like in the interval tree both bounds of an activity are inclusive, so
+ * the activities that meet at an instant clash. An activity that clashes with nothing is a group of its own.
+ */
+public class ClashGroup {
+    private final List<Activity> activities;
+    private final Interval span;
+
+    ClashGroup(List<Activity> activities, long start, long end) {
+        this.activities = ImmutableList.copyOf(activities);
+        this.span = new Interval(start, end);
+    }
+
+    /**
+     * @return the activities of the group ordered by start.
+     */
+    public List<Activity> getActivities() {
+        return activities;
+    }
+
+    /**
+     * @return the interval from the first start to the last end of the group.
+     */
+    public ReadableInterval getSpan() {
+        return span;
+    }
+
+    public int size() {
+        return activities.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d activities from [%s] to [%s]", activities.size(), span.getStart(), span.getEnd());
+    }
+
+    /**
+     * Groups the activities in any order. The activities are sorted first, then the groups are built lazily.
+     *
+     * @param activities The activities.
+     * @return The groups ordered by start.
+     */
+    public static Iterable<ClashGroup> group(Collection<Activity> activities) {
+        final List<Activity> sorted = Ordering.natural().sortedCopy(activities);
+        return new Iterable<ClashGroup>() {
+            @Override
+            public Iterator<ClashGroup> iterator() {
+                return group(sorted.iterator());
+            }
+        };
+    }
+
+    /**
+     * Groups the activities in one pass. Only the activities of the current group are held in memory, so the
+     * input can be streamed.
+     *
+     * @param activities The activities ordered by start.
+     * @return The groups ordered by start, built on demand.
+     * @throws IllegalArgumentException from the iterator if the activities are not ordered by start.
+     */
+    public static Iterator<ClashGroup> group(final Iterator<Activity> activities) {
+        return new AbstractIterator<ClashGroup>() {
+            private Activity next = activities.hasNext() ? activities.next() : null;
+
+            @Override
+            protected ClashGroup computeNext() {
+                if (next == null) {
+                    return endOfData();
+                }
+
+                final List<Activity> members = new ArrayList<>();
+                final long start = next.getStartMillis();
+                long end = next.getEndMillis();
+                do {
+                    members.add(next);
+                    end = Math.max(end, next.getEndMillis());
+
+                    final Activity previous = next;
+                    next = activities.hasNext() ? activities.next() : null;
+                    if (next != null && next.getStartMillis() < previous.getStartMillis()) {
+                        throw new IllegalArgumentException(String.format("The activity %s starts before %s.", next, previous));
+                    }
+                } while (next != null && next.getStartMillis() <= end);
+
+                return new ClashGroup(members, start, end);
+            }
+        };
+    }
+}
@@ -0,0 +1,289 @@
+package mcgrey.app.test.clashing;
+
+import mcgrey.app.test.clashing.IntervalTree.IntervalData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class implements a read-only interval index stored in flat arrays: the starts, the ends and the payload ids of
+ * the intervals sorted by start, plus the largest end of every subtree. The tree is implicit, it is laid out in the
+ * arrays in order: a node at index i of level k (the number of trailing ones of i) has its children at
+ * i - 2^(k-1) and i + 2^(k-1). The queries are the ones of {@link ImplicitIntervalIndex}.
+ * <p/>
+ * An interval costs 28 bytes plus its share of the payload table, there are no objects per interval and the queries
+ * read neighbouring array cells. Each value of an {@link IntervalData} is a separate interval of the index.
+ *
+ * @param <O> The type of the interval values.
+ */
+public class ColumnarIntervalIndex<O> extends ImplicitIntervalIndex<O> {
+
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] ids;
+    private final long[] maxEnds;
+    private final Object[] payloads;
+    private final int size;
+    private final long end;
+
+    /**
+     * Creates the index from list of IntervalData objects.
+     *
+     * @param intervals is a list of IntervalData objects
+     */
+    public ColumnarIntervalIndex(List<IntervalData<O>> intervals) {
+        int count = 0;
+        for (IntervalData<O> data : intervals) {
+            count += data.getSet().size();
+        }
+
+        final Map<O, Integer> payloadIds = new IdentityHashMap<>();
+        final List<Object> payloadTable = new ArrayList<>();
+        starts = new long[count];
+        ends = new long[count];
+        ids = new int[count];
+
+        int i = 0;
+        for (IntervalData<O> data : intervals) {
+            for (O value : data.getSet()) {
+                Integer id = payloadIds.get(value);
+                if (id == null) {
+                    id = payloadTable.size();
+                    payloadIds.put(value, id);
+                    payloadTable.add(value);
+                }
+                starts[i] = data.getStart();
+                ends[i] = data.getEnd();
+                ids[i] = id;
+                i++;
+            }
+        }
+        payloads = payloadTable.toArray();
+
+        size = count;
+        sort(0, size - 1);
+        maxEnds = new long[size];
+        index();
+        end = maxEnd();
+    }
+
+    /**
+     * Creates the index from the columns. The arrays are taken over by the index and sorted in place.
+     *
+     * @param starts   of the intervals.
+     * @param ends     of the intervals.
+     * @param ids      of the interval payloads, the indexes into the payload table.
+     * @param payloads is the payload table.
+     */
+    public ColumnarIntervalIndex(long[] starts, long[] ends, int[] ids, List<O> payloads) {
+        if (starts.length != ends.length || starts.length != ids.length)
+            throw new IllegalArgumentException("The columns must have the same length.");
+
+        this.starts = starts;
+        this.ends = ends;
+        this.ids = ids;
+        this.payloads = payloads.toArray();
+
+        size = starts.length;
+        sort(0, size - 1);
+        maxEnds = new long[size];
+        index();
+        end = maxEnd();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getStart() {
+        return size == 0 ? 0 : starts[0];
+    }
+
+    @Override
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Writes the index to the file that {@link MappedIntervalIndex} maps, the payloads are encoded by the codec.
+     *
+     * @param file  The index file.
+     * @param codec The codec of the values.
+     * @throws IOException if the file can't be written.
+     */
+    @SuppressWarnings("unchecked")
+    public void write(File file, MappedIntervalIndex.Codec<? super O> codec) throws IOException {
+        final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        final DataOutputStream payloadOutput = new DataOutputStream(payloadBytes);
+        final int[] offsets = new int[payloads.length + 1];
+        for (int i = 0; i < payloads.length; i++) {
+            offsets[i] = payloadOutput.size();
+            codec.write((O) payloads[i], payloadOutput);
+        }
+        offsets[payloads.length] = payloadOutput.size();
+
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            final FileChannel channel = output.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(MappedIntervalIndex.ORDER);
+            buffer.putInt(MappedIntervalIndex.MAGIC);
+            buffer.putInt(MappedIntervalIndex.VERSION);
+            buffer.putInt(size);
+            buffer.putInt(rootLevel(size));
+            buffer.putInt(payloads.length);
+            buffer.putInt(0);
+            buffer.putLong(getStart());
+            buffer.putLong(end);
+            for (long[] column : new long[][]{starts, ends, maxEnds}) {
+                for (int i = 0; i < size; i++) {
+                    reserve(channel, buffer, 8);
+                    buffer.putLong(column[i]);
+                }
+            }
+            for (int[] column : new int[][]{ids, offsets}) {
+                for (int value : column) {
+                    reserve(channel, buffer, 4);
+                    buffer.putInt(value);
+                }
+            }
+            flush(channel, buffer);
+            final ByteBuffer payloadBuffer = ByteBuffer.wrap(payloadBytes.toByteArray());
+            while (payloadBuffer.hasRemaining())
+                channel.write(payloadBuffer);
+        }
+    }
+
+    private static void reserve(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private long maxEnd() {
+        long max = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || ends[i] > max)
+                max = ends[i];
+        }
+        return max;
+    }
+
+    /**
+     * Sorts the columns by start with a quicksort that moves all three of them together.
+     */
+    private void sort(int from, int to) {
+        while (to - from > 16) {
+            final int middle = (from + to) >>> 1;
+            // median of three as the pivot
+            if (starts[middle] < starts[from])
+                swap(middle, from);
+            if (starts[to] < starts[from])
+                swap(to, from);
+            if (starts[to] < starts[middle])
+                swap(to, middle);
+            final long pivot = starts[middle];
+
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (starts[i] < pivot)
+                    i++;
+                while (starts[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            // recurse into the smaller part, loop over the larger one
+            if (j - from < to - i) {
+                sort(from, j);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && starts[j] < starts[j - 1]; j--)
+                swap(j, j - 1);
+        }
+    }
+
+    private void swap(int i, int j) {
+        final long start = starts[i];
+        starts[i] = starts[j];
+        starts[j] = start;
+        final long end = ends[i];
+        ends[i] = ends[j];
+        ends[j] = end;
+        final int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    /**
+     * Computes the largest end of every subtree of the implicit tree.
+     */
+    private void index() {
+        if (size == 0)
+            return;
+
+        int lastIndex = 0;
+        long last = 0;
+        for (int i = 0; i < size; i += 2) {
+            lastIndex = i;
+            last = maxEnds[i] = ends[i];
+        }
+        int k = 1;
+        for (; 1L << k <= size; k++) {
+            final int x = 1 << (k - 1);
+            final int first = (x << 1) - 1;
+            final int step = x << 2;
+            for (int i = first; i < size; i += step) {
+                final long left = maxEnds[i - x];
+                // a missing right subtree is covered by the last node of the level below
+                final long right = i + x < size ? maxEnds[i + x] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(left, right));
+            }
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < size && maxEnds[lastIndex] > last)
+                last = maxEnds[lastIndex];
+        }
+    }
+
+    @Override
+    long start(int i) {
+        return starts[i];
+    }
+
+    @Override
+    long end(int i) {
+        return ends[i];
+    }
+
+    @Override
+    long maxEnd(int i) {
+        return maxEnds[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    O value(int i) {
+        return (O) payloads[ids[i]];
+    }
+}
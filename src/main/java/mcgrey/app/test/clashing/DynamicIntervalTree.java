@@ -0,0 +1,381 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.Ordering;
+import mcgrey.app.test.clashing.IntervalTree.IntervalData;
+import mcgrey.app.test.clashing.IntervalTree.LongVisitor;
+import mcgrey.app.test.clashing.IntervalTree.Visitor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class implements a mutable interval tree. It is an AVL tree of intervals ordered by start (and by end,
+ * descending, like {@link Activity}) where every node also keeps the largest end of its subtree. Unlike
+ * {@link IntervalTree} the intervals can be inserted and removed one by one in O(log n). The queries walk the tree in
+ * order and skip only the subtrees that end before the range, so they take O(min(n, k log n)) for k matching
+ * intervals in the worst case, and report the intervals in the order of the tree.
+ * <p/>
+ * The tree is not thread safe.
+ *
+ * @param <O> The type of the interval values.
+ */
+public class DynamicIntervalTree<O> implements IntervalIndex<O> {
+
+    private Node<O> root = null;
+    private int size = 0;
+
+    private static final Ordering<IntervalData<?>> byKey = new Ordering<IntervalData<?>>() {
+        public int compare(IntervalData<?> left, IntervalData<?> right) {
+            return DynamicIntervalTree.compare(left.getStart(), left.getEnd(), right.getStart(), right.getEnd());
+        }
+    };
+
+    /**
+     * Creates an empty tree.
+     */
+    public DynamicIntervalTree() {
+    }
+
+    /**
+     * Creates a balanced tree from the list of IntervalData objects in O(n log n).
+     *
+     * @param intervals is a list of IntervalData objects
+     */
+    public DynamicIntervalTree(List<IntervalData<O>> intervals) {
+        final List<Node<O>> nodes = new ArrayList<>();
+        Node<O> last = null;
+        for (IntervalData<O> data : byKey.sortedCopy(intervals)) {
+            if (last != null && compare(last.start, last.end, data.getStart(), data.getEnd()) == 0) {
+                last.add(data);
+            } else {
+                last = new Node<>(data);
+                nodes.add(last);
+            }
+        }
+        root = build(nodes, 0, nodes.size());
+        size = intervals.size();
+    }
+
+    private static <O> Node<O> build(List<Node<O>> nodes, int from, int to) {
+        if (from >= to)
+            return null;
+        int middle = (from + to) >>> 1;
+        Node<O> node = nodes.get(middle);
+        node.left = build(nodes, from, middle);
+        node.right = build(nodes, middle + 1, to);
+        node.update();
+        return node;
+    }
+
+    static int compare(long leftStart, long leftEnd, long rightStart, long rightEnd) {
+        if (leftStart != rightStart)
+            return leftStart < rightStart ? -1 : 1;
+        if (leftEnd != rightEnd)
+            return leftEnd > rightEnd ? -1 : 1;
+        return 0;
+    }
+
+    /**
+     * @return the number of intervals in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the height of the tree, zero for an empty tree.
+     */
+    int height() {
+        return height(root);
+    }
+
+    @Override
+    public long getStart() {
+        if (root == null)
+            return 0;
+        Node<O> node = root;
+        while (node.left != null)
+            node = node.left;
+        return node.start;
+    }
+
+    @Override
+    public long getEnd() {
+        return root == null ? 0 : root.maxEnd;
+    }
+
+    /**
+     * Inserts the interval into the tree.
+     *
+     * @param data to insert.
+     */
+    public void insert(IntervalData<O> data) {
+        root = insert(root, data);
+        size++;
+    }
+
+    /**
+     * Removes the interval with the same bounds and values from the tree.
+     *
+     * @param data to remove.
+     * @return true if the tree contained the interval.
+     */
+    public boolean remove(IntervalData<O> data) {
+        Node<O> node = root;
+        while (node != null) {
+            int compared = compare(data.getStart(), data.getEnd(), node.start, node.end);
+            if (compared == 0)
+                break;
+            node = compared < 0 ? node.left : node.right;
+        }
+        if (node == null || !node.remove(data))
+            return false;
+
+        size--;
+        if (node.data.isEmpty())
+            root = delete(root, node.start, node.end);
+        return true;
+    }
+
+    private static <O> Node<O> insert(Node<O> node, IntervalData<O> data) {
+        if (node == null)
+            return new Node<>(data);
+        int compared = compare(data.getStart(), data.getEnd(), node.start, node.end);
+        if (compared == 0) {
+            node.add(data);
+            return node;
+        }
+        if (compared < 0)
+            node.left = insert(node.left, data);
+        else
+            node.right = insert(node.right, data);
+        return balance(node);
+    }
+
+    private static <O> Node<O> delete(Node<O> node, long start, long end) {
+        int compared = compare(start, end, node.start, node.end);
+        if (compared < 0) {
+            node.left = delete(node.left, start, end);
+        } else if (compared > 0) {
+            node.right = delete(node.right, start, end);
+        } else {
+            if (node.left == null)
+                return node.right;
+            if (node.right == null)
+                return node.left;
+            Node<O> successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+            successor.right = deleteMin(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private static <O> Node<O> deleteMin(Node<O> node) {
+        if (node.left == null)
+            return node.right;
+        node.left = deleteMin(node.left);
+        return balance(node);
+    }
+
+    private static <O> Node<O> balance(Node<O> node) {
+        node.update();
+        int factor = height(node.left) - height(node.right);
+        if (factor > 1) {
+            if (height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);
+            return rotateRight(node);
+        }
+        if (factor < -1) {
+            if (height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static <O> Node<O> rotateRight(Node<O> node) {
+        Node<O> left = node.left;
+        node.left = left.right;
+        node.update();
+        left.right = node;
+        left.update();
+        return left;
+    }
+
+    private static <O> Node<O> rotateLeft(Node<O> node) {
+        Node<O> right = node.right;
+        node.right = right.left;
+        node.update();
+        right.left = node;
+        right.update();
+        return right;
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    @Override
+    public IntervalData<O> query(long index) {
+        return query(root, index, index, null);
+    }
+
+    @Override
+    public IntervalData<O> query(long start, long end) {
+        return query(root, start, end, null);
+    }
+
+    @Override
+    public boolean query(long index, Visitor<? super O> visitor) {
+        return visit(root, index, index, visitor, null);
+    }
+
+    @Override
+    public boolean query(long start, long end, Visitor<? super O> visitor) {
+        return visit(root, start, end, visitor, null);
+    }
+
+    @Override
+    public boolean query(long index, LongVisitor visitor) {
+        return visit(root, index, index, null, visitor);
+    }
+
+    @Override
+    public boolean query(long start, long end, LongVisitor visitor) {
+        return visit(root, start, end, null, visitor);
+    }
+
+    private static <O> IntervalData<O> query(Node<O> node, long start, long end, IntervalData<O> results) {
+        if (node == null || node.maxEnd < start)
+            return results;
+        results = query(node.left, start, end, results);
+        // the node and its right subtree start after the range
+        if (node.start > end)
+            return results;
+        if (node.end >= start) {
+            for (IntervalData<O> data : node.data) {
+                if (results == null)
+                    results = data.copy();
+                else
+                    results.combined(data);
+            }
+        }
+        return query(node.right, start, end, results);
+    }
+
+    private static <O> boolean visit(Node<O> node, long start, long end,
+                                     Visitor<? super O> visitor, LongVisitor boundVisitor) {
+        if (node == null || node.maxEnd < start)
+            return true;
+        if (!visit(node.left, start, end, visitor, boundVisitor))
+            return false;
+        // the node and its right subtree start after the range
+        if (node.start > end)
+            return true;
+        if (node.end >= start && !node.report(visitor, boundVisitor))
+            return false;
+        return visit(node.right, start, end, visitor, boundVisitor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        query(Long.MIN_VALUE, Long.MAX_VALUE, new LongVisitor() {
+            @Override
+            public boolean visit(long start, long end) {
+                builder.append(start).append("->").append(end).append("\n");
+                return true;
+            }
+        });
+        return builder.length() == 0 ? "Tree has no nodes." : builder.toString();
+    }
+
+    /**
+     * The node holds all the intervals with the same start and end. An interval is added in constant time and removed
+     * in O(k) for k intervals with the same bounds, there are few of them in practice.
+     */
+    private static final class Node<O> {
+        private final long start;
+        private final long end;
+        private final List<IntervalData<O>> data = new ArrayList<>(1);
+        private Node<O> left = null;
+        private Node<O> right = null;
+        private int height = 1;
+        private long maxEnd;
+
+        private Node(IntervalData<O> data) {
+            this.start = data.getStart();
+            this.end = data.getEnd();
+            this.maxEnd = end;
+            add(data);
+        }
+
+        private void add(IntervalData<O> data) {
+            this.data.add(data);
+        }
+
+        private boolean remove(IntervalData<O> data) {
+            for (int i = 0; i < this.data.size(); i++) {
+                if (sameValues(this.data.get(i), data)) {
+                    this.data.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Compares the values with equals. IntervalData.equals looks them up in its sorted set, which may treat
+         * different values as the same.
+         */
+        private static boolean sameValues(IntervalData<?> left, IntervalData<?> right) {
+            if (left.getSet().size() != right.getSet().size())
+                return false;
+            Iterator<?> leftValues = left.getSet().iterator();
+            Iterator<?> rightValues = right.getSet().iterator();
+            while (leftValues.hasNext()) {
+                if (!Objects.equals(leftValues.next(), rightValues.next()))
+                    return false;
+            }
+            return true;
+        }
+
+        private void update() {
+            height = 1 + Math.max(height(left), height(right));
+            maxEnd = end;
+            if (left != null && left.maxEnd > maxEnd)
+                maxEnd = left.maxEnd;
+            if (right != null && right.maxEnd > maxEnd)
+                maxEnd = right.maxEnd;
+        }
+
+        private boolean report(Visitor<? super O> visitor, LongVisitor boundVisitor) {
+            if (visitor != null) {
+                for (IntervalData<O> data : this.data) {
+                    for (O value : data.getSet()) {
+                        if (!visitor.visit(start, end, value))
+                            return false;
+                    }
+                }
+            } else {
+                for (int i = 0; i < data.size(); i++) {
+                    if (!boundVisitor.visit(start, end))
+                        return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Interval;
+import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInterval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class finds the gaps common to a set of schedules, for example the times a meeting of its attendees fits in,
+ * without laying the schedules out. The bounds of the activities in the window are read from the interval indexes of
+ * the schedules into two arrays, the starts and the ends, and the arrays are swept together once: an instant is busy
+ * while more activities have started by it than have ended before it. No object is created for the activities.
+ * <p/>
+ * The work is O(k log k) for k activities in the window, the sort, and close to O(k) when the indexes report the
+ * activities ordered by start, like {@link DynamicIntervalTree} does. Like everywhere in the schedule both bounds of
+ * an activity are inclusive, a window and a gap are from their start to their end, exclusive.
+ */
+public final class FreeSlots {
+
+    private FreeSlots() {
+    }
+
+    /**
+     * Finds the earliest gaps common to the schedules.
+     *
+     * @param schedules The schedules.
+     * @param window    The window to search in.
+     * @param duration  The shortest gap.
+     * @param limit     The number of gaps to find at most.
+     * @return The whole gaps, each at least as long as the duration, ordered by start and clipped to the window.
+     */
+    public static List<Interval> find(Collection<Schedule> schedules, ReadableInterval window,
+                                      ReadableDuration duration, int limit) {
+        final long start = window.getStartMillis();
+        final long end = window.getEndMillis();
+        final long shortest = Math.max(1, duration.getMillis());
+        final List<Interval> gaps = new ArrayList<>();
+        if (limit <= 0 || end - start < shortest) {
+            return gaps;
+        }
+
+        final Bounds busy = new Bounds();
+        for (Schedule schedule : schedules) {
+            schedule.queryBusy(start, end - 1, busy);
+        }
+        final long[] starts = Arrays.copyOf(busy.starts, busy.size);
+        final long[] ends = Arrays.copyOf(busy.ends, busy.size);
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+
+        long free = start; // the first instant that may be free
+        int active = 0;
+        for (int i = 0, j = 0; i < starts.length; ) {
+            // an activity that starts at the end of another one keeps the instant busy
+            if (starts[i] <= ends[j]) {
+                if (active == 0 && starts[i] - free >= shortest) {
+                    gaps.add(new Interval(free, starts[i]));
+                    if (gaps.size() == limit) {
+                        return gaps;
+                    }
+                }
+                active++;
+                i++;
+            } else {
+                if (--active == 0) {
+                    free = Math.max(free, ends[j] + 1);
+                }
+                j++;
+            }
+        }
+        if (ends.length > 0) {
+            free = Math.max(free, ends[ends.length - 1] + 1);
+        }
+        if (end - free >= shortest) {
+            gaps.add(new Interval(free, end));
+        }
+        return gaps;
+    }
+
+    /**
+     * Finds the earliest gap common to the schedules.
+     *
+     * @param schedules The schedules.
+     * @param window    The window to search in.
+     * @param duration  The shortest gap.
+     * @return The whole gap clipped to the window, or null if there is no gap as long as the duration.
+     */
+    public static Interval findEarliest(Collection<Schedule> schedules, ReadableInterval window, ReadableDuration duration) {
+        final List<Interval> gaps = find(schedules, window, duration, 1);
+        return gaps.isEmpty() ? null : gaps.get(0);
+    }
+
+    /**
+     * The growing arrays of the bounds of the busy activities.
+     */
+    private static final class Bounds implements IntervalTree.LongVisitor {
+        private long[] starts = new long[64];
+        private long[] ends = new long[64];
+        private int size;
+
+        @Override
+        public boolean visit(long start, long end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+            return true;
+        }
+    }
+}
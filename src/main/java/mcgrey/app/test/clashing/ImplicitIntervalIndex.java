@@ -0,0 +1,145 @@
+package mcgrey.app.test.clashing;
+
+import mcgrey.app.test.clashing.IntervalTree.IntervalData;
+import mcgrey.app.test.clashing.IntervalTree.LongVisitor;
+import mcgrey.app.test.clashing.IntervalTree.Visitor;
+
+/**
+ * The queries of the implicit interval tree laid out in the columns of {@link ColumnarIntervalIndex}, shared with
+ * {@link MappedIntervalIndex} that reads the same columns from a file. The intervals are sorted by start, a node at
+ * index i of level k (the number of trailing ones of i) has its children at i - 2^(k-1) and i + 2^(k-1), and the
+ * largest end of its subtree is kept next to it. It is based on the cgranges library written by Heng Li
+ * {@see https://github.com/lh3/cgranges}.
+ *
+ * @param <O> The type of the interval values.
+ */
+abstract class ImplicitIntervalIndex<O> implements IntervalIndex<O> {
+
+    /**
+     * Subtrees up to this level are scanned instead of descended.
+     */
+    private static final int SCAN_LEVEL = 3;
+
+    /**
+     * @return the number of intervals in the index.
+     */
+    public abstract int size();
+
+    /**
+     * @return the start of the interval i in the start order.
+     */
+    abstract long start(int i);
+
+    /**
+     * @return the end of the interval i in the start order.
+     */
+    abstract long end(int i);
+
+    /**
+     * @return the largest end of the subtree of the node i.
+     */
+    abstract long maxEnd(int i);
+
+    /**
+     * @return the value of the interval i in the start order.
+     */
+    abstract O value(int i);
+
+    /**
+     * @param size The number of intervals.
+     * @return the level of the root of the tree of the intervals, floor(log2 size), or -1 for no intervals.
+     */
+    static int rootLevel(int size) {
+        return size == 0 ? -1 : 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    @Override
+    public IntervalData<O> query(long index) {
+        return query(index, index);
+    }
+
+    @Override
+    public IntervalData<O> query(long start, long end) {
+        final Combiner<O> combiner = new Combiner<>();
+        query(start, end, combiner);
+        return combiner.data;
+    }
+
+    @Override
+    public boolean query(long index, Visitor<? super O> visitor) {
+        return query(index, index, visitor, null);
+    }
+
+    @Override
+    public boolean query(long start, long end, Visitor<? super O> visitor) {
+        return query(start, end, visitor, null);
+    }
+
+    @Override
+    public boolean query(long index, LongVisitor visitor) {
+        return query(index, index, null, visitor);
+    }
+
+    @Override
+    public boolean query(long start, long end, LongVisitor visitor) {
+        return query(start, end, null, visitor);
+    }
+
+    private boolean query(long start, long end, Visitor<? super O> visitor, LongVisitor boundVisitor) {
+        final int level = rootLevel(size());
+        return level < 0 || visit((1 << level) - 1, level, start, end, visitor, boundVisitor);
+    }
+
+    /**
+     * Visits the subtree of the node x of level k.
+     */
+    private boolean visit(int x, int k, long start, long end, Visitor<? super O> visitor, LongVisitor boundVisitor) {
+        final int size = size();
+        if (k <= SCAN_LEVEL) {
+            // the subtree is small, scan it
+            final int first = x >> k << k;
+            final int last = (int) Math.min(size, first + (1L << (k + 1)) - 1);
+            for (int i = first; i < last && start(i) <= end; i++) {
+                if (end(i) >= start && !report(i, visitor, boundVisitor))
+                    return false;
+            }
+            return true;
+        }
+
+        final int half = 1 << (k - 1);
+        final int left = x - half;
+        if (left >= size || maxEnd(left) >= start) {
+            if (!visit(left, k - 1, start, end, visitor, boundVisitor))
+                return false;
+        }
+        if (x < size && start(x) <= end) {
+            if (end(x) >= start && !report(x, visitor, boundVisitor))
+                return false;
+            return visit(x + half, k - 1, start, end, visitor, boundVisitor);
+        }
+        return true;
+    }
+
+    private boolean report(int i, Visitor<? super O> visitor, LongVisitor boundVisitor) {
+        if (visitor != null)
+            return visitor.visit(start(i), end(i), value(i));
+        return boundVisitor.visit(start(i), end(i));
+    }
+
+    /**
+     * Combines the visited intervals into the data the interval query returns.
+     */
+    private static final class Combiner<O> implements Visitor<O> {
+        private IntervalData<O> data;
+
+        @Override
+        public boolean visit(long start, long end, O value) {
+            final IntervalData<O> interval = new IntervalData<>(start, end, value);
+            if (data == null)
+                data = interval;
+            else
+                data.combined(interval);
+            return true;
+        }
+    }
+}
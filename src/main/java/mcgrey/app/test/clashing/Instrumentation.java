@@ -0,0 +1,74 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.ReadableDuration;
+
+/**
+ * This class holds the listener that observes the hot paths: the construction and the queries of {@link IntervalTree},
+ * the layouts of {@link Schedule} and {@link Schedule#calculate(java.util.List)}. No listener is installed by default,
+ * then an instrumented path only reads the listener field and does nothing else. With a listener installed the paths
+ * measure themselves and report to it, see {@link LayoutStatistics} for the one that exports the numbers over JMX.
+ * <p/>
+ * The listener is shared by the threads and is called on the thread that runs the observed work.
+ */
+public final class Instrumentation {
+
+    /**
+     * Receives the measurements of the hot paths.
+     */
+    public interface Listener {
+        /**
+         * Called when an {@link IntervalTree} is built.
+         *
+         * @param intervals The number of intervals.
+         * @param depth     The depth of the tree, the number of nodes on its longest path.
+         * @param nanos     The build time in nanoseconds.
+         */
+        void treeBuilt(int intervals, int depth, long nanos);
+
+        /**
+         * Called when an {@link IntervalTree} query completes.
+         *
+         * @param nodes The number of the tree nodes the query has visited.
+         * @param hits  The number of the matching intervals reported.
+         */
+        void treeQueried(int nodes, int hits);
+
+        /**
+         * Called when the metrics of the time slots are calculated.
+         *
+         * @param slots The number of the calculated time slots.
+         * @param nanos The calculation time in nanoseconds.
+         */
+        void calculated(int slots, long nanos);
+
+        /**
+         * Called when a {@link Schedule#getSlotsBy(ReadableDuration)} call, or any of its variants, completes.
+         *
+         * @param slots    The number of the time slots of the layout.
+         * @param occupied The number of the occupied time slots produced, the rest are the empty ones skipped.
+         * @param nanos    The layout latency in nanoseconds.
+         */
+        void laidOut(int slots, int occupied, long nanos);
+    }
+
+    private static volatile Listener listener;
+
+    private Instrumentation() {
+    }
+
+    /**
+     * Installs the listener, it replaces the installed one.
+     *
+     * @param listener The listener, or null to turn the instrumentation off.
+     */
+    public static void setListener(Listener listener) {
+        Instrumentation.listener = listener;
+    }
+
+    /**
+     * @return the installed listener, or null if the instrumentation is off.
+     */
+    public static Listener getListener() {
+        return listener;
+    }
+}
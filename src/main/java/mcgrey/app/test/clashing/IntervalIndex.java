@@ -0,0 +1,73 @@
+package mcgrey.app.test.clashing;
+
+/**
+ * The queries shared by the interval indexes. Both bounds of an interval are inclusive.
+ *
+ * @param <O> The type of the interval values.
+ */
+public interface IntervalIndex<O> {
+    /**
+     * @return the smallest start of the indexed intervals.
+     */
+    long getStart();
+
+    /**
+     * @return the largest end of the indexed intervals.
+     */
+    long getEnd();
+
+    /**
+     * Stabbing query
+     *
+     * @param index to query for.
+     * @return data at index.
+     */
+    IntervalTree.IntervalData<O> query(long index);
+
+    /**
+     * Range query
+     *
+     * @param start of range to query for.
+     * @param end   of range to query for.
+     * @return data for range.
+     */
+    IntervalTree.IntervalData<O> query(long start, long end);
+
+    /**
+     * Stabbing query that reports every matching value to the visitor.
+     *
+     * @param index   to query for.
+     * @param visitor to report the matching values to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    boolean query(long index, IntervalTree.Visitor<? super O> visitor);
+
+    /**
+     * Range query that reports every matching value to the visitor.
+     *
+     * @param start   of range to query for.
+     * @param end     of range to query for.
+     * @param visitor to report the matching values to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    boolean query(long start, long end, IntervalTree.Visitor<? super O> visitor);
+
+    /**
+     * Stabbing query that reports the bounds of every matching interval to the visitor.
+     *
+     * @param index   to query for.
+     * @param visitor to report the matching intervals to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    boolean query(long index, IntervalTree.LongVisitor visitor);
+
+    /**
+     * Range query that reports the bounds of every matching interval to the visitor.
+     *
+     * @param start   of range to query for.
+     * @param end     of range to query for.
+     * @param visitor to report the matching intervals to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    boolean query(long start, long end, IntervalTree.LongVisitor visitor);
+}
@@ -13,7 +13,7 @@ import java.util.*;
  *
  * @author Justin Wetherell <phishman3579@gmail.com>
  */
-public class IntervalTree<O> {
+public class IntervalTree<O> implements IntervalIndex<O> {
 
     private Interval<O> root = null;
     private long start;
@@ -65,6 +65,61 @@ public class IntervalTree<O> {
 
     private static final Ordering<IntervalData<?>> byEnd = Ordering.from(endComparator);
 
+    /**
+     * The slots of the counter an instrumented query counts the visited nodes and the reported values in.
+     */
+    private static final int NODES = 0;
+    private static final int HITS = 1;
+
+    /**
+     * Receives the intervals matching a query one by one, without any intermediate {@link IntervalData}.
+     *
+     * @param <O> The type of the interval values.
+     */
+    public interface Visitor<O> {
+        /**
+         * Called for every value of every matching interval.
+         *
+         * @param start of the matching interval.
+         * @param end   of the matching interval.
+         * @param value of the matching interval.
+         * @return true to continue the query, false to stop it.
+         */
+        boolean visit(long start, long end, O value);
+    }
+
+    /**
+     * Receives the bounds of the intervals matching a query, ignoring their values.
+     */
+    public interface LongVisitor {
+        /**
+         * Called once for every matching interval.
+         *
+         * @param start of the matching interval.
+         * @param end   of the matching interval.
+         * @return true to continue the query, false to stop it.
+         */
+        boolean visit(long start, long end);
+    }
+
+    /**
+     * Receives the intervals matching the ranges of a batched query, see {@link #query(long[], long[], RangeVisitor)}.
+     *
+     * @param <O> The type of the interval values.
+     */
+    public interface RangeVisitor<O> {
+        /**
+         * Called for every value of every interval matching a range.
+         *
+         * @param range The index of the range.
+         * @param start of the matching interval.
+         * @param end   of the matching interval.
+         * @param value of the matching interval.
+         * @return true to continue the query, false to stop it.
+         */
+        boolean visit(int range, long start, long end, O value);
+    }
+
     /**
      * Create interval tree from list of IntervalData objects;
      *
@@ -74,46 +129,85 @@ public class IntervalTree<O> {
         if (intervals.size() <= 0)
             return;
 
-        final List<IntervalData<O>> copy = byMiddle.sortedCopy(intervals);
-        root = createFromList(copy);
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        final long started = listener == null ? 0 : System.nanoTime();
+
+        final IntervalData<O>[] sorted = toArray(intervals);
+        Arrays.sort(sorted, byMiddle);
+        root = build(sorted, newArray(sorted.length), 0, sorted.length);
         start = byStart.min(intervals).start;
         end = byEnd.max(intervals).end;
+
+        if (listener != null)
+            listener.treeBuilt(sorted.length, root.depth(), System.nanoTime() - started);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <O> IntervalData<O>[] newArray(int size) {
+        return (IntervalData<O>[]) new IntervalData<?>[size];
+    }
+
+    private static <O> IntervalData<O>[] toArray(List<IntervalData<O>> intervals) {
+        return intervals.toArray(IntervalTree.<O>newArray(intervals.size()));
     }
 
+    @Override
     public long getStart() {
         return start;
     }
 
+    @Override
     public long getEnd() {
         return end;
     }
 
+    /**
+     * Creates the subtree of the intervals sorted by middle.
+     */
     protected static <O> Interval<O> createFromList(List<IntervalData<O>> intervals) {
-        Interval<O> newInterval = new Interval<>();
-        if (intervals.size() == 1) {
-            IntervalData<O> middle = intervals.get(0);
-            newInterval.center = IntervalData.middle(middle.start, middle.end);
-            newInterval.add(middle);
-        } else {
-            int half = intervals.size() / 2;
-            IntervalData<O> middle = intervals.get(half);
-            newInterval.center = IntervalData.middle(middle.start, middle.end);
-            List<IntervalData<O>> leftIntervals = new ArrayList<>();
-            List<IntervalData<O>> rightIntervals = new ArrayList<>();
-            for (IntervalData<O> interval : intervals) {
-                if (interval.end < newInterval.center) {
-                    leftIntervals.add(interval);
-                } else if (interval.start > newInterval.center) {
-                    rightIntervals.add(interval);
-                } else {
-                    newInterval.add(interval);
-                }
+        final IntervalData<O>[] sorted = toArray(intervals);
+        return build(sorted, newArray(sorted.length), 0, sorted.length);
+    }
+
+    /**
+     * Builds the subtree of the intervals from the first one up to the last one, exclusive, sorted by middle, in
+     * O(n log n) overall. The intervals are partitioned in place, with the help of the scratch array, into the ones
+     * left of the center and the ones right of it, both keeping the order by middle, and the ones containing the
+     * center go to the node.
+     */
+    private static <O> Interval<O> build(IntervalData<O>[] intervals, IntervalData<O>[] scratch, int from, int to) {
+        final Interval<O> newInterval = new Interval<>();
+        final IntervalData<O> middle = intervals[from + (to - from) / 2];
+        newInterval.center = IntervalData.middle(middle.start, middle.end);
+
+        // the left intervals are moved to the front, the overlapping ones to the front of the scratch array and the
+        // right ones to its back, in reverse order
+        int left = from;
+        int overlap = from;
+        int right = to;
+        for (int i = from; i < to; i++) {
+            final IntervalData<O> interval = intervals[i];
+            if (interval.end < newInterval.center) {
+                intervals[left++] = interval;
+            } else if (interval.start > newInterval.center) {
+                scratch[--right] = interval;
+            } else {
+                scratch[overlap++] = interval;
             }
-            if (leftIntervals.size() > 0)
-                newInterval.left = createFromList(leftIntervals);
-            if (rightIntervals.size() > 0)
-                newInterval.right = createFromList(rightIntervals);
         }
+        for (int i = from; i < overlap; i++) {
+            newInterval.add(scratch[i]);
+        }
+        for (int i = right; i < to; i++) {
+            intervals[i] = scratch[to - 1 - (i - right)];
+        }
+
+        if (left > from)
+            newInterval.left = build(intervals, scratch, from, left);
+        if (right < to)
+            newInterval.right = build(intervals, scratch, right, to);
+        newInterval.index();
+        newInterval.bound();
         return newInterval;
     }
 
@@ -123,8 +217,17 @@ public class IntervalTree<O> {
      * @param index to query for.
      * @return data at index.
      */
+    @Override
     public IntervalData<O> query(long index) {
-        return root.query(index);
+        if (root == null)
+            return null;
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        if (listener == null)
+            return root.query(index, null);
+        final int[] counter = new int[2];
+        final IntervalData<O> results = root.query(index, counter);
+        listener.treeQueried(counter[NODES], counter[HITS]);
+        return results;
     }
 
     /**
@@ -134,8 +237,132 @@ public class IntervalTree<O> {
      * @param end   of range to query for.
      * @return data for range.
      */
+    @Override
     public IntervalData<O> query(long start, long end) {
-        return root.query(start, end);
+        if (root == null)
+            return null;
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        if (listener == null)
+            return root.query(start, end, null);
+        final int[] counter = new int[2];
+        final IntervalData<O> results = root.query(start, end, counter);
+        listener.treeQueried(counter[NODES], counter[HITS]);
+        return results;
+    }
+
+    /**
+     * Stabbing query that reports every matching value to the visitor. It doesn't allocate anything per hit.
+     *
+     * @param index   to query for.
+     * @param visitor to report the matching values to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    @Override
+    public boolean query(long index, Visitor<? super O> visitor) {
+        return visit(index, index, visitor, null);
+    }
+
+    /**
+     * Range query that reports every matching value to the visitor. It doesn't allocate anything per hit.
+     *
+     * @param start   of range to query for.
+     * @param end     of range to query for.
+     * @param visitor to report the matching values to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    @Override
+    public boolean query(long start, long end, Visitor<? super O> visitor) {
+        return visit(start, end, visitor, null);
+    }
+
+    /**
+     * Stabbing query that reports the bounds of every matching interval to the visitor.
+     *
+     * @param index   to query for.
+     * @param visitor to report the matching intervals to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    @Override
+    public boolean query(long index, LongVisitor visitor) {
+        return visit(index, index, null, visitor);
+    }
+
+    /**
+     * Range query that reports the bounds of every matching interval to the visitor.
+     *
+     * @param start   of range to query for.
+     * @param end     of range to query for.
+     * @param visitor to report the matching intervals to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    @Override
+    public boolean query(long start, long end, LongVisitor visitor) {
+        return visit(start, end, null, visitor);
+    }
+
+    /**
+     * Range queries of many ranges in one traversal of the tree. Every node is visited once for all the ranges that
+     * reach it, the ranges are narrowed down to the ones that overlap its subtree by binary searches, so the
+     * neighbouring ranges share the descents instead of starting from the root each. The intervals matching a range
+     * are reported in the order of {@link #query(long, long, Visitor)}.
+     *
+     * @param starts  of the ranges, ascending.
+     * @param ends    of the ranges, ascending, for example of consecutive or equally long ranges.
+     * @param visitor to report the matching values to, with the indexes of the ranges.
+     * @return false if the visitor has stopped the query, true otherwise.
+     * @throws IllegalArgumentException if the ranges are not ordered by start and by end.
+     */
+    public boolean query(long[] starts, long[] ends, RangeVisitor<? super O> visitor) {
+        if (starts.length != ends.length)
+            throw new IllegalArgumentException("The ranges must have as many starts as ends.");
+        for (int i = 1; i < starts.length; i++) {
+            if (starts[i] < starts[i - 1] || ends[i] < ends[i - 1])
+                throw new IllegalArgumentException(String.format("The range %d is out of order.", i));
+        }
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        if (listener == null)
+            return root == null || root.visit(starts, ends, 0, starts.length, visitor, null);
+
+        final int[] counter = new int[2];
+        final boolean completed = root == null || root.visit(starts, ends, 0, starts.length, visitor, counter);
+        listener.treeQueried(counter[NODES], counter[HITS]);
+        return completed;
+    }
+
+    /**
+     * Range queries of many ranges in one traversal of the tree, see {@link #query(long[], long[], RangeVisitor)}. The
+     * data of every range is collected for the tests to compare with {@link #query(long, long)}, the layout reports
+     * the matches to a visitor instead.
+     *
+     * @param starts of the ranges, ascending.
+     * @param ends   of the ranges, ascending.
+     * @return data for every range, the same as {@link #query(long, long)} gives.
+     */
+    List<IntervalData<O>> query(long[] starts, long[] ends) {
+        final List<IntervalData<O>> results = new ArrayList<>(Collections.<IntervalData<O>>nCopies(starts.length, null));
+        query(starts, ends, new RangeVisitor<O>() {
+            @Override
+            public boolean visit(int range, long start, long end, O value) {
+                final IntervalData<O> data = new IntervalData<>(start, end, value);
+                if (results.get(range) == null)
+                    results.set(range, data);
+                else
+                    results.get(range).combined(data);
+                return true;
+            }
+        });
+        return results;
+    }
+
+    private boolean visit(long start, long end, Visitor<? super O> visitor, LongVisitor boundVisitor) {
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        if (listener == null)
+            return root == null || root.visit(start, end, visitor, boundVisitor, null);
+
+        final int[] counter = new int[2];
+        final boolean completed = root == null || root.visit(start, end, visitor, boundVisitor, counter);
+        listener.treeQueried(counter[NODES], counter[HITS]);
+        return completed;
     }
 
     /**
@@ -185,10 +412,269 @@ public class IntervalTree<O> {
         private Interval<O> left = null;
         private Interval<O> right = null;
         private List<IntervalData<O>> overlap = new ArrayList<>(); // startComparator
+        private List<IntervalData<O>> overlapEnd; // endComparator, descending
+
+        // The flat copy of overlap for the visitor queries, one entry per value, sorted by start point
+        private long[] starts;
+        private long[] ends;
+        private Object[] values;
+        private boolean[] firsts; // the entry is the first value of its interval
+        private int[] endOrder; // the entries sorted by end point, descending
+        private long low; // the first start point of the subtree
+        private long high; // the last end point of the subtree
 
         private void add(IntervalData<O> data) {
             overlap.add(data);
+        }
+
+        /**
+         * Sorts the overlap list by start once, builds its end ordered copy and flattens both orders into the arrays
+         * used by the visitor queries. Since every interval of the node contains the center, a query on either side
+         * of the center walks only one of the orders and stops at the first interval that doesn't match.
+         */
+        private void index() {
             Collections.sort(overlap, startComparator);
+            overlapEnd = byEnd.reverse().sortedCopy(overlap);
+
+            int size = 0;
+            for (IntervalData<O> data : overlap) {
+                size += data.set.size();
+            }
+            starts = new long[size];
+            ends = new long[size];
+            values = new Object[size];
+            firsts = new boolean[size];
+
+            int i = 0;
+            for (IntervalData<O> data : overlap) {
+                boolean first = true;
+                for (O value : data.set) {
+                    starts[i] = data.start;
+                    ends[i] = data.end;
+                    values[i] = value;
+                    firsts[i] = first;
+                    first = false;
+                    i++;
+                }
+            }
+
+            endOrder = byEndDescending(ends);
+        }
+
+        /**
+         * Sorts the entries by end point, descending, with a bottom-up merge sort that keeps the entries with the
+         * same end in the start order.
+         *
+         * @return the indexes of the entries in the end order.
+         */
+        private static int[] byEndDescending(long[] ends) {
+            final int size = ends.length;
+            int[] order = new int[size];
+            int[] buffer = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+
+            for (int width = 1; width < size; width <<= 1) {
+                for (int from = 0; from < size; from += width << 1) {
+                    final int middle = Math.min(from + width, size);
+                    final int to = Math.min(from + (width << 1), size);
+                    int i = from;
+                    int j = middle;
+                    int k = from;
+                    while (i < middle && j < to) {
+                        buffer[k++] = ends[order[j]] > ends[order[i]] ? order[j++] : order[i++];
+                    }
+                    while (i < middle) {
+                        buffer[k++] = order[i++];
+                    }
+                    while (j < to) {
+                        buffer[k++] = order[j++];
+                    }
+                }
+                final int[] merged = buffer;
+                buffer = order;
+                order = merged;
+            }
+            return order;
+        }
+
+        /**
+         * Range query that reports the matching intervals either to the visitor or to the long visitor.
+         *
+         * @param start        of range to query for.
+         * @param end          of range to query for.
+         * @param visitor      to report the matching values to, or null.
+         * @param boundVisitor to report the matching intervals to, or null.
+         * @param counter      to count the visited nodes and the hits in, or null.
+         * @return false if a visitor has stopped the query, true otherwise.
+         */
+        private boolean visit(long start, long end, Visitor<? super O> visitor, LongVisitor boundVisitor,
+                              int[] counter) {
+            if (counter != null)
+                counter[NODES]++;
+            if (end < center) {
+                // every interval ends after the range, so they match up to the first one starting after it
+                for (int i = 0; i < starts.length && starts[i] <= end; i++) {
+                    if (!report(i, visitor, boundVisitor, counter))
+                        return false;
+                }
+            } else if (start > center) {
+                // every interval starts before the range, so they match up to the first one ending before it
+                for (int i = 0; i < endOrder.length && ends[endOrder[i]] >= start; i++) {
+                    if (!report(endOrder[i], visitor, boundVisitor, counter))
+                        return false;
+                }
+            } else {
+                // the range contains the center, so every interval matches
+                for (int i = 0; i < starts.length; i++) {
+                    if (!report(i, visitor, boundVisitor, counter))
+                        return false;
+                }
+            }
+            if (left != null && start < center) {
+                if (!left.visit(start, end, visitor, boundVisitor, counter))
+                    return false;
+            }
+            if (right != null && end >= center) {
+                if (!right.visit(start, end, visitor, boundVisitor, counter))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Sets the bounds of the subtree, the node and its children are indexed.
+         */
+        private void bound() {
+            low = starts[0];
+            high = ends[endOrder[0]];
+            if (left != null) {
+                low = Math.min(low, left.low);
+                high = Math.max(high, left.high);
+            }
+            if (right != null) {
+                low = Math.min(low, right.low);
+                high = Math.max(high, right.high);
+            }
+        }
+
+        /**
+         * Visits the subtree for the ranges from the first one up to the last one, exclusive. The ranges are ordered
+         * by start and by end, so the ones that overlap the subtree, the ones before the center and the ones after it
+         * are runs found by binary searches.
+         */
+        @SuppressWarnings("unchecked")
+        private boolean visit(long[] rangeStarts, long[] rangeEnds, int from, int to, RangeVisitor<? super O> visitor,
+                              int[] counter) {
+            // the ranges that overlap the subtree
+            from = firstAtLeast(rangeEnds, from, to, low);
+            to = firstAfter(rangeStarts, from, to, high);
+            if (from >= to)
+                return true;
+            if (counter != null)
+                counter[NODES]++;
+
+            // the ranges that end before the center, contain it, and start after it
+            final int containing = firstAtLeast(rangeEnds, from, to, center);
+            final int after = firstAfter(rangeStarts, containing, to, center);
+
+            // every interval ends after the ranges before the center, they match up to the first one starting after
+            // the range; the ranges ending before the first start match nothing
+            for (int r = firstAtLeast(rangeEnds, from, containing, starts[0]); r < containing; r++) {
+                for (int i = 0; i < starts.length && starts[i] <= rangeEnds[r]; i++) {
+                    if (!hit(counter) || !visitor.visit(r, starts[i], ends[i], (O) values[i]))
+                        return false;
+                }
+            }
+            for (int r = containing; r < after; r++) {
+                for (int i = 0; i < starts.length; i++) {
+                    if (!hit(counter) || !visitor.visit(r, starts[i], ends[i], (O) values[i]))
+                        return false;
+                }
+            }
+            // every interval starts before the ranges after the center, they match up to the first one ending before
+            // the range; the ranges starting after the last end match nothing
+            final int matched = firstAfter(rangeStarts, after, to, ends[endOrder[0]]);
+            for (int r = after; r < matched; r++) {
+                for (int i = 0; i < endOrder.length && ends[endOrder[i]] >= rangeStarts[r]; i++) {
+                    if (!hit(counter) || !visitor.visit(r, starts[endOrder[i]], ends[endOrder[i]], (O) values[endOrder[i]]))
+                        return false;
+                }
+            }
+
+            if (left != null) {
+                // the ranges that start before the center
+                if (!left.visit(rangeStarts, rangeEnds, from, firstAtLeast(rangeStarts, from, to, center), visitor, counter))
+                    return false;
+            }
+            if (right != null) {
+                // the ranges that end at the center or after it
+                if (!right.visit(rangeStarts, rangeEnds, containing, to, visitor, counter))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the first index from the first one up to the last one, exclusive, of a value at least the given one
+         * in the ascending values, or the last index if there is none.
+         */
+        private static int firstAtLeast(long[] values, int from, int to, long value) {
+            while (from < to) {
+                final int middle = (from + to) >>> 1;
+                if (values[middle] < value) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return from;
+        }
+
+        /**
+         * @return the first index from the first one up to the last one, exclusive, of a value greater than the given
+         * one in the ascending values, or the last index if there is none.
+         */
+        private static int firstAfter(long[] values, int from, int to, long value) {
+            while (from < to) {
+                final int middle = (from + to) >>> 1;
+                if (values[middle] <= value) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return from;
+        }
+
+        /**
+         * Counts a hit of an instrumented query.
+         *
+         * @return true, to chain it with the visitor.
+         */
+        private static boolean hit(int[] counter) {
+            if (counter != null)
+                counter[HITS]++;
+            return true;
+        }
+
+        /**
+         * @return the number of nodes on the longest path of the subtree.
+         */
+        private int depth() {
+            return 1 + Math.max(left == null ? 0 : left.depth(), right == null ? 0 : right.depth());
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean report(int i, Visitor<? super O> visitor, LongVisitor boundVisitor, int[] counter) {
+            if (visitor == null && !firsts[i])
+                return true;
+            if (counter != null)
+                counter[HITS]++;
+            if (visitor != null)
+                return visitor.visit(starts[i], ends[i], (O) values[i]);
+            return boundVisitor.visit(starts[i], ends[i]);
         }
 
         /**
@@ -198,6 +684,12 @@ public class IntervalTree<O> {
          * @return data at index.
          */
         public IntervalData<O> query(long index) {
+            return query(index, null);
+        }
+
+        private IntervalData<O> query(long index, int[] counter) {
+            if (counter != null)
+                counter[NODES]++;
             IntervalData<O> results = null;
             if (index < center) {
                 // overlap is sorted by start point
@@ -206,21 +698,22 @@ public class IntervalTree<O> {
                         break;
 
                     IntervalData<O> temp = data.query(index);
+                    if (counter != null && temp != null)
+                        counter[HITS] += temp.set.size();
                     if (results == null && temp != null)
                         results = temp;
                     else if (temp != null)
                         results.combined(temp);
                 }
             } else if (index >= center) {
-                // overlapEnd is sorted by end point
-                List<IntervalData<O>> overlapEnd = new ArrayList<>();
-                Collections.sort(overlapEnd, endComparator);
-                overlapEnd.addAll(overlap);
+                // overlapEnd is sorted by end point, descending
                 for (IntervalData<O> data : overlapEnd) {
                     if (data.end < index)
                         break;
 
                     IntervalData<O> temp = data.query(index);
+                    if (counter != null && temp != null)
+                        counter[HITS] += temp.set.size();
                     if (results == null && temp != null)
                         results = temp;
                     else if (temp != null)
@@ -229,7 +722,7 @@ public class IntervalTree<O> {
             }
             if (index < center) {
                 if (left != null) {
-                    IntervalData<O> temp = left.query(index);
+                    IntervalData<O> temp = left.query(index, counter);
                     if (results == null && temp != null)
                         results = temp;
                     else if (temp != null)
@@ -237,7 +730,7 @@ public class IntervalTree<O> {
                 }
             } else if (index >= center) {
                 if (right != null) {
-                    IntervalData<O> temp = right.query(index);
+                    IntervalData<O> temp = right.query(index, counter);
                     if (results == null && temp != null)
                         results = temp;
                     else if (temp != null)
@@ -255,25 +748,33 @@ public class IntervalTree<O> {
          * @return data for range.
          */
         public IntervalData<O> query(long start, long end) {
+            return query(start, end, null);
+        }
+
+        private IntervalData<O> query(long start, long end, int[] counter) {
+            if (counter != null)
+                counter[NODES]++;
             IntervalData<O> results = null;
             for (IntervalData<O> data : overlap) {
                 if (data.start > end)
                     break;
                 IntervalData<O> temp = data.query(start, end);
+                if (counter != null && temp != null)
+                    counter[HITS] += temp.set.size();
                 if (results == null && temp != null)
                     results = temp;
                 else if (temp != null)
                     results.combined(temp);
             }
             if (left != null && start < center) {
-                IntervalData<O> temp = left.query(start, end);
+                IntervalData<O> temp = left.query(start, end, counter);
                 if (temp != null && results == null)
                     results = temp;
                 else if (temp != null)
                     results.combined(temp);
             }
             if (right != null && end >= center) {
-                IntervalData<O> temp = right.query(start, end);
+                IntervalData<O> temp = right.query(start, end, counter);
                 if (temp != null && results == null)
                     results = temp;
                 else if (temp != null)
@@ -355,10 +856,25 @@ public class IntervalTree<O> {
             }
         }
 
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
         public Set<O> getValues() {
             return ImmutableSet.copyOf(set);
         }
 
+        /**
+         * @return the values without a copy.
+         */
+        Set<O> getSet() {
+            return set;
+        }
+
         /**
          * Clear the indices.
          */
@@ -0,0 +1,225 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.joda.time.ReadableDuration;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a bounded cache of schedule layouts shared by the threads, for the schedules that are laid out again and
+ * again at the same slot sizes. A layout is kept by the schedule and the slot size, together with the version of the
+ * schedule it was computed at. Once the schedule is changed the layout is out of date, the next request lays the
+ * schedule out again and replaces it.
+ * <p/>
+ * The cache is bounded by the number of layouts, {@link #ofSize(long)}, or by their weight, {@link #ofWeight(long)},
+ * and evicts the least recently used layouts first. The schedules are held weakly, the layouts of a schedule that is
+ * no longer used are dropped by the next request after the schedule is collected.
+ */
+public class LayoutCache {
+
+    /**
+     * Weighs a layout by the number of its occupied time slots and activity bars.
+     */
+    private static final Weigher<Key, Entry> byLayoutSize = new Weigher<Key, Entry>() {
+        @Override
+        public int weigh(Key key, Entry value) {
+            return 1 + value.layout.getOccupiedTimeSlots().size() + value.layout.getActivityBars().size();
+        }
+    };
+
+    private final Cache<Key, Entry> cache;
+    private final ReferenceQueue<Schedule> collected = new ReferenceQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private LayoutCache(long maximum, boolean weighed) {
+        final CacheBuilder<Key, Entry> builder = CacheBuilder.newBuilder().removalListener(new RemovalListener<Key, Entry>() {
+            @Override
+            public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                if (notification.wasEvicted()) {
+                    evictions.incrementAndGet();
+                }
+            }
+        });
+        if (weighed) {
+            builder.maximumWeight(maximum).weigher(byLayoutSize);
+        } else {
+            builder.maximumSize(maximum);
+        }
+        cache = builder.build();
+    }
+
+    /**
+     * @param maximumSize The number of layouts the cache keeps at most.
+     * @return the cache.
+     */
+    public static LayoutCache ofSize(long maximumSize) {
+        return new LayoutCache(maximumSize, false);
+    }
+
+    /**
+     * @param maximumWeight The total weight of the layouts the cache keeps at most. A layout weighs one plus the
+     *                      number of its occupied time slots and activity bars.
+     * @return the cache.
+     */
+    public static LayoutCache ofWeight(long maximumWeight) {
+        return new LayoutCache(maximumWeight, true);
+    }
+
+    /**
+     * Returns the cached layout of the schedule, or lays the schedule out by
+     * {@link Schedule#getSlotsBy(ReadableDuration)} and caches the layout if it is missing or out of date. The
+     * threads that miss the same layout at the same time wait for one of them to lay it out.
+     *
+     * @param schedule The schedule.
+     * @param slotSize The size of a time slot.
+     * @return The schedule layout.
+     */
+    public Schedule.ScheduleLayout getSlotsBy(final Schedule schedule, final ReadableDuration slotSize) {
+        purge();
+        final Key key = new Key(schedule, slotSize.getMillis(), collected);
+        final Entry cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.version == schedule.getVersion()) {
+                hits.incrementAndGet();
+                return cached.layout;
+            }
+            // the schedule has changed since, unless another thread has replaced the layout already
+            if (cache.asMap().remove(key, cached)) {
+                invalidations.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            return cache.get(key, new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                    // the version is read first, a change during the layout makes the entry out of date at worst
+                    final long version = schedule.getVersion();
+                    return new Entry(version, schedule.getSlotsBy(slotSize));
+                }
+            }).layout;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Drops the layouts of the schedule, for example when the schedule is not used any more.
+     *
+     * @param schedule The schedule.
+     */
+    public void invalidate(Schedule schedule) {
+        for (Key key : cache.asMap().keySet()) {
+            if (key.get() == schedule) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the layouts of the collected schedules.
+     */
+    private void purge() {
+        for (Reference<? extends Schedule> key = collected.poll(); key != null; key = collected.poll()) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * @return the number of cached layouts.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of requests answered with a cached layout.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests that laid the schedule out, including the ones with an out of date layout.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of layouts dropped because their schedules had changed.
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the number of layouts evicted to keep the cache in its bounds.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LayoutCache{size=%d, hits=%d, misses=%d, invalidations=%d, evictions=%d}",
+                size(), getHitCount(), getMissCount(), getInvalidationCount(), getEvictionCount());
+    }
+
+    /**
+     * The weakly held schedule, compared by identity, and the slot size. Once the schedule is collected the key only
+     * equals itself, so it can still be removed.
+     */
+    private static class Key extends WeakReference<Schedule> {
+        private final long slotSize;
+        private final int hash;
+
+        private Key(Schedule schedule, long slotSize, ReferenceQueue<Schedule> queue) {
+            super(schedule, queue);
+            this.slotSize = slotSize;
+            this.hash = 31 * System.identityHashCode(schedule) + (int) (slotSize ^ (slotSize >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (obj instanceof Key) {
+                Key that = (Key) obj;
+                final Schedule schedule = get();
+
+                return schedule != null && that.get() == schedule && that.slotSize == slotSize;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        private final long version;
+        private final Schedule.ScheduleLayout layout;
+
+        private Entry(long version, Schedule.ScheduleLayout layout) {
+            this.version = version;
+            this.layout = layout;
+        }
+    }
+}
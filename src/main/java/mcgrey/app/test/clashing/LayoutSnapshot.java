@@ -0,0 +1,240 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes a {@link Schedule.ScheduleLayout} into a compact binary snapshot and reads it back without
+ * laying anything out, for example to warm up a cache or to pass a layout to another process.
+ * <p/>
+ * The snapshot is little-endian:
+ * <pre>
+ * header  magic, version (ints), slot size, origin (longs), slot count, bar count, listed bar count,
+ *         occupied slot count, name count, padding (ints)
+ * bars    start, end (longs), nominator, denominator, name id (ints) of every bar
+ * slots   index, member count, member bar ids (ints) of every occupied slot
+ * names   length and UTF-8 bytes of every distinct name, a bar without a name has the name id -1
+ * </pre>
+ * The first listed bars are the activity bars of the layout, the rest are only members of its slots. The names are
+ * stored once however many bars have them.
+ */
+public final class LayoutSnapshot {
+
+    static final int MAGIC = 0x534C4159; // "SLAY"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 48;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int BAR_SIZE = 28;
+
+    private LayoutSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of the layout into a new buffer.
+     *
+     * @param layout The layout.
+     * @return The buffer with the snapshot, flipped for reading.
+     */
+    public static ByteBuffer write(Schedule.ScheduleLayout layout) {
+        final List<Schedule.ActivityBar> bars = new ArrayList<>(layout.getActivityBars());
+        final Map<Schedule.ActivityBar, Integer> barIds = new IdentityHashMap<>();
+        for (Schedule.ActivityBar bar : bars) {
+            barIds.put(bar, barIds.size());
+        }
+        final int listed = bars.size();
+
+        final List<Schedule.TimeSlot> slots = layout.getOccupiedTimeSlots();
+        int size = HEADER_SIZE;
+        for (Schedule.TimeSlot slot : slots) {
+            size += 8 + 4 * slot.getMembers().size();
+            for (Schedule.ActivityBar bar : slot.getMembers()) {
+                if (!barIds.containsKey(bar)) {
+                    barIds.put(bar, barIds.size());
+                    bars.add(bar);
+                }
+            }
+        }
+        size += BAR_SIZE * bars.size();
+
+        final Map<String, Integer> nameIds = new HashMap<>();
+        final List<byte[]> names = new ArrayList<>();
+        for (Schedule.ActivityBar bar : bars) {
+            final String name = bar.getName();
+            if (name != null && !nameIds.containsKey(name)) {
+                nameIds.put(name, names.size());
+                final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                names.add(bytes);
+                size += 4 + bytes.length;
+            }
+        }
+
+        final int count = layout.getTimeSlots().size();
+        final long slotSize = layout.getTimeSlotSize().getMillis();
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ORDER);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(slotSize);
+        buffer.putLong(count == 0 ? 0 : layout.getTimeSlot(0).getInterval().getStartMillis());
+        buffer.putInt(count);
+        buffer.putInt(bars.size());
+        buffer.putInt(listed);
+        buffer.putInt(slots.size());
+        buffer.putInt(names.size());
+        buffer.putInt(0);
+
+        for (Schedule.ActivityBar bar : bars) {
+            final Integer name = nameIds.get(bar.getName());
+            buffer.putLong(bar.getActivity().getStartMillis());
+            buffer.putLong(bar.getActivity().getEndMillis());
+            buffer.putInt(bar.getNominator());
+            buffer.putInt(bar.getDenominator());
+            buffer.putInt(name == null ? -1 : name);
+        }
+
+        final long origin = buffer.getLong(16);
+        for (Schedule.TimeSlot slot : slots) {
+            buffer.putInt(Schedule.slotIndex(origin, slot.getInterval().getStartMillis(), slotSize));
+            buffer.putInt(slot.getMembers().size());
+            for (Schedule.ActivityBar bar : slot.getMembers()) {
+                buffer.putInt(barIds.get(bar));
+            }
+        }
+
+        for (byte[] name : names) {
+            buffer.putInt(name.length);
+            buffer.put(name);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the snapshot of the layout into the stream.
+     *
+     * @param layout The layout.
+     * @param output The stream, it is not closed.
+     * @throws IOException if the stream fails.
+     */
+    public static void write(Schedule.ScheduleLayout layout, OutputStream output) throws IOException {
+        final ByteBuffer buffer = write(layout);
+        final WritableByteChannel channel = Channels.newChannel(output);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the layout from the snapshot. The values are read in place from the buffer, heap, direct or mapped, only
+     * the time slots, the activity bars and the names are created.
+     *
+     * @param buffer The buffer, the snapshot starts at its position. The position is not changed.
+     * @return The layout.
+     * @throws IOException if the buffer doesn't hold a snapshot, the snapshot is truncated or corrupt, or its version
+     *                     is not supported.
+     */
+    public static Schedule.ScheduleLayout read(ByteBuffer buffer) throws IOException {
+        final ByteBuffer snapshot = buffer.slice().order(ORDER);
+        if (snapshot.remaining() < HEADER_SIZE || snapshot.getInt(0) != MAGIC)
+            throw new IOException("The buffer doesn't hold a layout snapshot.");
+        final int version = snapshot.getInt(4);
+        if (version != VERSION)
+            throw new IOException(String.format("The layout snapshot version %d is not supported.", version));
+
+        final long slotSize = snapshot.getLong(8);
+        final long origin = snapshot.getLong(16);
+        final int count = snapshot.getInt(24);
+        final int barCount = snapshot.getInt(28);
+        final int listed = snapshot.getInt(32);
+        final int slotCount = snapshot.getInt(36);
+        final int nameCount = snapshot.getInt(40);
+        // every bar, slot and name takes some bytes, so the counts of a corrupt header are bounded by the buffer
+        final int available = snapshot.remaining() - HEADER_SIZE;
+        if (slotSize <= 0 || count < 0 || barCount < 0 || barCount > available / BAR_SIZE || listed < 0
+                || listed > barCount || slotCount < 0 || slotCount > available / 8 || nameCount < 0
+                || nameCount > available / 4)
+            throw new IOException("The layout snapshot header is corrupt.");
+
+        try {
+            // the names follow the slots, skip to them first; the layout finds the slots by index with a binary
+            // search, so the indexes must ascend within the layout
+            int position = HEADER_SIZE + BAR_SIZE * barCount;
+            int previous = -1;
+            for (int i = 0; i < slotCount; i++) {
+                final int index = snapshot.getInt(position);
+                final int members = snapshot.getInt(position + 4);
+                if (index <= previous || index >= count || members < 0)
+                    throw new IOException("The layout snapshot is corrupt.");
+                if (members > (snapshot.limit() - position - 8) / 4)
+                    throw new IOException("The layout snapshot is truncated.");
+                previous = index;
+                position += 8 + 4 * members;
+            }
+            final String[] names = new String[nameCount];
+            final ByteBuffer nameBuffer = snapshot.duplicate();
+            for (int i = 0; i < nameCount; i++) {
+                final int length = snapshot.getInt(position);
+                if (length < 0 || length > snapshot.limit() - position - 4)
+                    throw new IOException("The layout snapshot is corrupt.");
+                final byte[] name = new byte[length];
+                nameBuffer.position(position + 4);
+                nameBuffer.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                position += 4 + name.length;
+            }
+
+            final Schedule.ActivityBar[] bars = new Schedule.ActivityBar[barCount];
+            for (int i = 0; i < barCount; i++) {
+                final int offset = HEADER_SIZE + BAR_SIZE * i;
+                final int name = snapshot.getInt(offset + 24);
+                if (name < -1 || name >= nameCount)
+                    throw new IOException("The layout snapshot is corrupt.");
+                bars[i] = new Schedule.ActivityBar(new Activity(
+                        snapshot.getLong(offset), snapshot.getLong(offset + 8), name < 0 ? null : names[name]));
+                bars[i].setMetrics(snapshot.getInt(offset + 16), snapshot.getInt(offset + 20));
+            }
+
+            final List<Schedule.TimeSlot> slots = new ArrayList<>(slotCount);
+            position = HEADER_SIZE + BAR_SIZE * barCount;
+            for (int i = 0; i < slotCount; i++) {
+                final long slotStart = origin + snapshot.getInt(position) * slotSize;
+                final int members = snapshot.getInt(position + 4);
+                final Schedule.TimeSlot slot = new Schedule.TimeSlot(new Interval(slotStart, slotStart + slotSize));
+                for (int j = 0; j < members; j++) {
+                    final int bar = snapshot.getInt(position + 8 + 4 * j);
+                    if (bar < 0 || bar >= barCount)
+                        throw new IOException("The layout snapshot is corrupt.");
+                    slot.add(bars[bar]);
+                }
+                slots.add(slot);
+                position += 8 + 4 * members;
+            }
+
+            final List<Schedule.ActivityBar> activityBars = new ArrayList<>(listed);
+            for (int i = 0; i < listed; i++) {
+                activityBars.add(bars[i]);
+            }
+            return new Schedule.ScheduleLayout(new Duration(slotSize), origin, count, slots, activityBars);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("The layout snapshot is truncated.", e);
+        } catch (IllegalArgumentException e) {
+            // the bounds of an activity are out of order
+            throw new IOException("The layout snapshot is corrupt.", e);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package mcgrey.app.test.clashing;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This listener sums up the measurements of the hot paths and exports them as an MBean, for example:
+ * <pre>
+ * final LayoutStatistics statistics = new LayoutStatistics();
+ * statistics.register(ManagementFactory.getPlatformMBeanServer());
+ * Instrumentation.setListener(statistics);
+ * </pre>
+ * The maxima of the node visits and the hits point at the pathological inputs, a query that visits many nodes for
+ * few hits or a slot crowded with activities. The numbers are updated atomically without locks.
+ */
+public class LayoutStatistics implements Instrumentation.Listener, LayoutStatisticsMBean {
+
+    /**
+     * The name the statistics are registered under.
+     */
+    public static final String OBJECT_NAME = "mcgrey.app.test.clashing:type=LayoutStatistics";
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLong treesBuilt = new AtomicLong();
+    private final AtomicLong treeBuildTime = new AtomicLong();
+    private final AtomicLong maxTreeDepth = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong nodeVisits = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong maxNodeVisits = new AtomicLong();
+    private final AtomicLong maxHits = new AtomicLong();
+    private final AtomicLong calculations = new AtomicLong();
+    private final AtomicLong calculatedSlots = new AtomicLong();
+    private final AtomicLong calculationTime = new AtomicLong();
+    private final AtomicLong layouts = new AtomicLong();
+    private final AtomicLong slotsProduced = new AtomicLong();
+    private final AtomicLong emptySlotsSkipped = new AtomicLong();
+    private final AtomicLong layoutTime = new AtomicLong();
+    private final AtomicLong maxLayoutTime = new AtomicLong();
+    private final AtomicLongArray layoutLatencies = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Registers the statistics with the server under {@link #OBJECT_NAME}.
+     *
+     * @param server The MBean server, for example the platform one.
+     * @return The name the statistics are registered under.
+     * @throws JMException if the statistics can't be registered, for example the name is taken.
+     */
+    public ObjectName register(MBeanServer server) throws JMException {
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public void treeBuilt(int intervals, int depth, long nanos) {
+        treesBuilt.incrementAndGet();
+        treeBuildTime.addAndGet(nanos);
+        max(maxTreeDepth, depth);
+    }
+
+    @Override
+    public void treeQueried(int nodes, int hits) {
+        queries.incrementAndGet();
+        nodeVisits.addAndGet(nodes);
+        this.hits.addAndGet(hits);
+        max(maxNodeVisits, nodes);
+        max(maxHits, hits);
+    }
+
+    @Override
+    public void calculated(int slots, long nanos) {
+        calculations.incrementAndGet();
+        calculatedSlots.addAndGet(slots);
+        calculationTime.addAndGet(nanos);
+    }
+
+    @Override
+    public void laidOut(int slots, int occupied, long nanos) {
+        layouts.incrementAndGet();
+        slotsProduced.addAndGet(occupied);
+        emptySlotsSkipped.addAndGet(slots - occupied);
+        layoutTime.addAndGet(nanos);
+        max(maxLayoutTime, nanos);
+        layoutLatencies.incrementAndGet(bucket(nanos / 1000));
+    }
+
+    /**
+     * @return the histogram bucket of the latency in microseconds.
+     */
+    static int bucket(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    @Override
+    public long getTreesBuilt() {
+        return treesBuilt.get();
+    }
+
+    @Override
+    public long getTreeBuildTime() {
+        return treeBuildTime.get();
+    }
+
+    @Override
+    public int getMaxTreeDepth() {
+        return (int) maxTreeDepth.get();
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.get();
+    }
+
+    @Override
+    public long getNodeVisits() {
+        return nodeVisits.get();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMaxNodeVisits() {
+        return maxNodeVisits.get();
+    }
+
+    @Override
+    public long getMaxHits() {
+        return maxHits.get();
+    }
+
+    @Override
+    public long getCalculations() {
+        return calculations.get();
+    }
+
+    @Override
+    public long getCalculatedSlots() {
+        return calculatedSlots.get();
+    }
+
+    @Override
+    public long getCalculationTime() {
+        return calculationTime.get();
+    }
+
+    @Override
+    public long getLayouts() {
+        return layouts.get();
+    }
+
+    @Override
+    public long getSlotsProduced() {
+        return slotsProduced.get();
+    }
+
+    @Override
+    public long getEmptySlotsSkipped() {
+        return emptySlotsSkipped.get();
+    }
+
+    @Override
+    public long getLayoutTime() {
+        return layoutTime.get();
+    }
+
+    @Override
+    public long getMaxLayoutTime() {
+        return maxLayoutTime.get();
+    }
+
+    @Override
+    public long[] getLayoutLatencyHistogram() {
+        final long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = layoutLatencies.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public void reset() {
+        for (AtomicLong number : new AtomicLong[]{treesBuilt, treeBuildTime, maxTreeDepth, queries, nodeVisits, hits,
+                maxNodeVisits, maxHits, calculations, calculatedSlots, calculationTime, layouts, slotsProduced,
+                emptySlotsSkipped, layoutTime, maxLayoutTime}) {
+            number.set(0);
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            layoutLatencies.set(i, 0);
+        }
+    }
+}
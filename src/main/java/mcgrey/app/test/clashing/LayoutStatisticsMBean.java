@@ -0,0 +1,49 @@
+package mcgrey.app.test.clashing;
+
+/**
+ * The JMX view of {@link LayoutStatistics}. The times are in nanoseconds.
+ */
+public interface LayoutStatisticsMBean {
+    long getTreesBuilt();
+
+    long getTreeBuildTime();
+
+    int getMaxTreeDepth();
+
+    long getQueries();
+
+    long getNodeVisits();
+
+    long getHits();
+
+    long getMaxNodeVisits();
+
+    long getMaxHits();
+
+    long getCalculations();
+
+    long getCalculatedSlots();
+
+    long getCalculationTime();
+
+    long getLayouts();
+
+    long getSlotsProduced();
+
+    long getEmptySlotsSkipped();
+
+    long getLayoutTime();
+
+    long getMaxLayoutTime();
+
+    /**
+     * @return the number of layouts by latency: the first bucket counts the layouts under a microsecond, the bucket i
+     * the ones from 2^(i-1) up to 2^i microseconds, the last one the rest.
+     */
+    long[] getLayoutLatencyHistogram();
+
+    /**
+     * Sets all the numbers to zero.
+     */
+    void reset();
+}
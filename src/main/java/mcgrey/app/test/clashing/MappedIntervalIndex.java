@@ -0,0 +1,229 @@
+package mcgrey.app.test.clashing;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class implements a read-only interval index that is queried directly in a memory-mapped file written by
+ * {@link ColumnarIntervalIndex#write(File, Codec)}. Opening the file doesn't read the intervals, the pages are loaded
+ * by the operating system as the queries touch them, so a restart doesn't rebuild anything.
+ * <p/>
+ * The file has the layout of {@link ColumnarIntervalIndex}, little-endian to match the common hardware, and is
+ * queried the same way, see {@link ImplicitIntervalIndex}:
+ * <pre>
+ * header   magic, version, size, root level, payload count (ints), padding, start, end (longs)
+ * starts   long[size]
+ * ends     long[size]
+ * maxEnds  long[size]
+ * ids      int[size]
+ * offsets  int[payload count + 1], the offsets of the payloads in the payload area
+ * payloads the payloads encoded by the codec
+ * </pre>
+ * A payload is decoded by the codec the first time a query reports it and kept after that. The file must be smaller
+ * than 2 GB.
+ *
+ * @param <O> The type of the interval values.
+ */
+public class MappedIntervalIndex<O> extends ImplicitIntervalIndex<O> {
+
+    static final int MAGIC = 0x49564958; // "IVIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Writes and reads the interval values.
+     *
+     * @param <O> The type of the interval values.
+     */
+    public interface Codec<O> {
+        /**
+         * @param value The value to write.
+         * @param out   The output to write it to.
+         * @throws IOException if the output fails.
+         */
+        void write(O value, DataOutput out) throws IOException;
+
+        /**
+         * @param buffer The buffer positioned at the value.
+         * @return The value.
+         */
+        O read(ByteBuffer buffer);
+    }
+
+    /**
+     * Writes an activity as its start, its end and its name in UTF-8.
+     */
+    public static final Codec<Activity> ACTIVITIES = new Codec<Activity>() {
+        @Override
+        public void write(Activity value, DataOutput out) throws IOException {
+            out.writeLong(value.getStartMillis());
+            out.writeLong(value.getEndMillis());
+            if (value.getName() == null) {
+                out.writeInt(-1);
+            } else {
+                final byte[] name = value.getName().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+        }
+
+        @Override
+        public Activity read(ByteBuffer buffer) {
+            final long start = buffer.getLong();
+            final long end = buffer.getLong();
+            final int length = buffer.getInt();
+            if (length < 0) {
+                return new Activity(start, end, null);
+            }
+            final byte[] name = new byte[length];
+            buffer.get(name);
+            return new Activity(start, end, new String(name, StandardCharsets.UTF_8));
+        }
+    };
+
+    private final ByteBuffer buffer;
+    private final LongBuffer starts;
+    private final LongBuffer ends;
+    private final LongBuffer maxEnds;
+    private final IntBuffer ids;
+    private final IntBuffer offsets;
+    private final int payloadArea;
+    private final Object[] payloads;
+    private final Codec<? extends O> codec;
+    private final int size;
+    private final long start;
+    private final long end;
+
+    /**
+     * Maps the index file.
+     *
+     * @param file  The index file.
+     * @param codec The codec the values were written with.
+     * @throws IOException if the file can't be mapped or isn't an index file.
+     */
+    public MappedIntervalIndex(File file, Codec<? extends O> codec) throws IOException {
+        this(map(file), codec);
+    }
+
+    /**
+     * Reads the index in the buffer, for example a buffer of the whole index file.
+     *
+     * @param buffer The buffer, the index starts at its position.
+     * @param codec  The codec the values were written with.
+     * @throws IOException if the buffer doesn't hold an index, or its header is corrupt or doesn't match its length.
+     */
+    public MappedIntervalIndex(ByteBuffer buffer, Codec<? extends O> codec) throws IOException {
+        this.buffer = buffer.slice().order(ORDER);
+        this.codec = codec;
+
+        if (this.buffer.remaining() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC)
+            throw new IOException("The buffer doesn't hold an interval index.");
+        final int version = this.buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException(String.format("The interval index version %d is not supported.", version));
+
+        size = this.buffer.getInt(8);
+        final int rootLevel = this.buffer.getInt(12);
+        final int payloadCount = this.buffer.getInt(16);
+        start = this.buffer.getLong(24);
+        end = this.buffer.getLong(32);
+        // the root level follows from the size, the queries descend from it
+        if (size < 0 || payloadCount < 0 || rootLevel != rootLevel(size))
+            throw new IOException("The interval index header is corrupt.");
+
+        // the lengths of a corrupt header may overflow an int, they are checked as longs
+        long offset = HEADER_SIZE;
+        starts = view(offset, size * 8L).asLongBuffer();
+        offset += size * 8L;
+        ends = view(offset, size * 8L).asLongBuffer();
+        offset += size * 8L;
+        maxEnds = view(offset, size * 8L).asLongBuffer();
+        offset += size * 8L;
+        ids = view(offset, size * 4L).asIntBuffer();
+        offset += size * 4L;
+        offsets = view(offset, (payloadCount + 1L) * 4).asIntBuffer();
+        offset += (payloadCount + 1L) * 4;
+        payloadArea = (int) offset;
+        payloads = new Object[payloadCount];
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The interval index file is larger than 2 GB.");
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private ByteBuffer view(long offset, long length) throws IOException {
+        if (offset + length > buffer.limit())
+            throw new IOException("The interval index is truncated.");
+        final ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+        return view.slice().order(ORDER);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public long getEnd() {
+        return end;
+    }
+
+    @Override
+    long start(int i) {
+        return starts.get(i);
+    }
+
+    @Override
+    long end(int i) {
+        return ends.get(i);
+    }
+
+    @Override
+    long maxEnd(int i) {
+        return maxEnds.get(i);
+    }
+
+    @Override
+    O value(int i) {
+        return payload(ids.get(i));
+    }
+
+    /**
+     * Decodes the payload on the first request. Concurrent queries may decode it more than once, any of the copies
+     * is kept.
+     */
+    @SuppressWarnings("unchecked")
+    private O payload(int id) {
+        Object payload = payloads[id];
+        if (payload == null) {
+            final ByteBuffer view = buffer.duplicate();
+            view.position(payloadArea + offsets.get(id));
+            // the codecs write with DataOutput, big-endian
+            payload = codec.read(view);
+            payloads[id] = payload;
+        }
+        return (O) payload;
+    }
+}
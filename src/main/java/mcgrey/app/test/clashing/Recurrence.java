@@ -0,0 +1,277 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.Ordering;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInstant;
+import org.joda.time.ReadableInterval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is an activity that recurs with a fixed period, like a daily standup: the first occurrence, the period, the
+ * number of occurrences and the starts of the cancelled ones. It is stored once, the occurrences are created only for
+ * the range of a query, see {@link #query(long, long, IntervalTree.Visitor)}, in O(k) for k occurrences in the range.
+ * An occurrence is an {@link Activity} like any other, it has the name of the first one and clashes and takes part in
+ * the metrics of a layout the same way.
+ * <p/>
+ * The recurrence is immutable.
+ */
+public class Recurrence implements Comparable<Recurrence> {
+    private static final long[] NO_EXCEPTIONS = new long[0];
+
+    private final Activity first;
+    private final long period;
+    private final int count;
+    private final long[] exceptions; // the starts of the cancelled occurrences, sorted
+    private final long start;
+    private final long end;
+
+    /**
+     * @param first  The first occurrence.
+     * @param period The time from the start of an occurrence to the start of the next one.
+     * @param count  The number of occurrences.
+     * @throws IllegalArgumentException if the period is not positive or there are no occurrences.
+     */
+    public Recurrence(Activity first, ReadableDuration period, int count) {
+        this(first, period.getMillis(), count, NO_EXCEPTIONS);
+    }
+
+    /**
+     * @param first  The first occurrence.
+     * @param period The time from the start of an occurrence to the start of the next one.
+     * @param until  The instant the last occurrence starts at or before, inclusive.
+     * @throws IllegalArgumentException if the period is not positive or there are no occurrences.
+     */
+    public Recurrence(Activity first, ReadableDuration period, ReadableInstant until) {
+        this(first, period.getMillis(), count(first, period.getMillis(), until.getMillis()), NO_EXCEPTIONS);
+    }
+
+    private Recurrence(Activity first, long period, int count, long[] exceptions) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The period must be positive");
+        }
+        this.first = first;
+        this.period = period;
+        this.count = count;
+        this.exceptions = exceptions;
+
+        int firstIndex = 0;
+        while (firstIndex < count && isCancelled(firstIndex)) {
+            firstIndex++;
+        }
+        int lastIndex = count - 1;
+        while (lastIndex >= firstIndex && isCancelled(lastIndex)) {
+            lastIndex--;
+        }
+        if (firstIndex > lastIndex) {
+            throw new IllegalArgumentException("The recurrence has no occurrences");
+        }
+        this.start = first.getStartMillis() + firstIndex * period;
+        this.end = first.getEndMillis() + lastIndex * period;
+    }
+
+    private static int count(Activity first, long period, long until) {
+        if (until < first.getStartMillis() || period <= 0) {
+            return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (until - first.getStartMillis()) / period + 1);
+    }
+
+    /**
+     * Cancels an occurrence, for example the standup on a holiday.
+     *
+     * @param occurrence The start of the cancelled occurrence. An instant that no occurrence starts at is ignored.
+     * @return The recurrence without the occurrence.
+     * @throws IllegalArgumentException if no occurrences are left.
+     */
+    public Recurrence except(ReadableInstant occurrence) {
+        final long cancelled = occurrence.getMillis();
+        final int position = Arrays.binarySearch(exceptions, cancelled);
+        if (position >= 0) {
+            return this;
+        }
+        final long[] result = new long[exceptions.length + 1];
+        final int insertion = -position - 1;
+        System.arraycopy(exceptions, 0, result, 0, insertion);
+        result[insertion] = cancelled;
+        System.arraycopy(exceptions, insertion, result, insertion + 1, exceptions.length - insertion);
+        return new Recurrence(first, period, count, result);
+    }
+
+    /**
+     * @return the first occurrence, even if it is cancelled.
+     */
+    public Activity getFirst() {
+        return first;
+    }
+
+    public ReadableDuration getPeriod() {
+        return new Duration(period);
+    }
+
+    /**
+     * @return the number of occurrences, the cancelled ones included.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the start of the first occurrence that is not cancelled.
+     */
+    public long getStartMillis() {
+        return start;
+    }
+
+    /**
+     * @return the end of the last occurrence that is not cancelled.
+     */
+    public long getEndMillis() {
+        return end;
+    }
+
+    private boolean isCancelled(int index) {
+        return exceptions.length > 0 && Arrays.binarySearch(exceptions, first.getStartMillis() + index * period) >= 0;
+    }
+
+    /**
+     * Reports the occurrences that touch the range to the visitor. Both bounds are inclusive.
+     *
+     * @param start   of range to query for.
+     * @param end     of range to query for.
+     * @param visitor to report the occurrences to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    public boolean query(long start, long end, IntervalTree.Visitor<? super Activity> visitor) {
+        final int to = last(end);
+        for (int index = first(start); index <= to; index++) {
+            if (!isCancelled(index)) {
+                final long offset = index * period;
+                if (!visitor.visit(first.getStartMillis() + offset, first.getEndMillis() + offset, first.shift(offset)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports the bounds of the occurrences that touch the range to the visitor. Both bounds are inclusive.
+     *
+     * @param start   of range to query for.
+     * @param end     of range to query for.
+     * @param visitor to report the occurrences to.
+     * @return false if the visitor has stopped the query, true otherwise.
+     */
+    public boolean query(long start, long end, IntervalTree.LongVisitor visitor) {
+        final int to = last(end);
+        for (int index = first(start); index <= to; index++) {
+            if (!isCancelled(index)) {
+                final long offset = index * period;
+                if (!visitor.visit(first.getStartMillis() + offset, first.getEndMillis() + offset))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param window The window, from its start to its end, exclusive.
+     * @return the occurrences that touch the window, ordered by start.
+     */
+    public List<Activity> getOccurrences(ReadableInterval window) {
+        final List<Activity> occurrences = new ArrayList<>();
+        if (window.toDurationMillis() > 0) {
+            query(window.getStartMillis(), window.getEndMillis() - 1, new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    return occurrences.add(value);
+                }
+            });
+        }
+        return occurrences;
+    }
+
+    /**
+     * @return the index of the first occurrence that ends at or after the instant.
+     */
+    private int first(long instant) {
+        if (instant <= start) {
+            return 0;
+        }
+        if (instant > end) {
+            return count;
+        }
+        // the first index with first.end + index * period >= instant
+        final long behind = instant - first.getEndMillis();
+        return behind <= 0 ? 0 : (int) ((behind + period - 1) / period);
+    }
+
+    /**
+     * @return the index of the last occurrence that starts at or before the instant.
+     */
+    private int last(long instant) {
+        if (instant >= end) {
+            return count - 1;
+        }
+        if (instant < start) {
+            return -1;
+        }
+        // the occurrences may be longer than the period, so the instant before the end may be after the last start
+        return (int) Math.min(count - 1, (instant - first.getStartMillis()) / period);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = first.hashCode();
+        result = 31 * result + (int) (period ^ (period >>> 32));
+        result = 31 * result + count;
+        return 31 * result + Arrays.hashCode(exceptions);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Recurrence) {
+            Recurrence that = (Recurrence) obj;
+
+            return that.first.equals(first) && that.period == period && that.count == count
+                    && Arrays.equals(that.exceptions, exceptions);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s every %s, %d times", first, getPeriod(), count);
+    }
+
+    /**
+     * Orders by the first occurrence, then by the period, the count, the cancelled occurrences and the name, so only
+     * the equal recurrences compare as equal.
+     */
+    @Override
+    public int compareTo(Recurrence that) {
+        int compared = first.compareTo(that.first);
+        if (compared != 0) {
+            return compared;
+        }
+        if (period != that.period) {
+            return period < that.period ? -1 : 1;
+        }
+        if (count != that.count) {
+            return count < that.count ? -1 : 1;
+        }
+        for (int i = 0; i < Math.min(exceptions.length, that.exceptions.length); i++) {
+            if (exceptions[i] != that.exceptions[i]) {
+                return exceptions[i] < that.exceptions[i] ? -1 : 1;
+            }
+        }
+        if (exceptions.length != that.exceptions.length) {
+            return exceptions.length < that.exceptions.length ? -1 : 1;
+        }
+        return Ordering.natural().nullsFirst().compare(first.getName(), that.first.getName());
+    }
+}
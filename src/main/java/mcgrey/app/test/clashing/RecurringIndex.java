@@ -0,0 +1,254 @@
+package mcgrey.app.test.clashing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The index of the activities of a schedule together with its recurrences. The occurrences are reported like the
+ * activities and are not stored, a query expands only the occurrences in its range.
+ * <p/>
+ * The recurrences are grouped by their period, there are few periods in practice: a day, a week. A group keeps its
+ * recurrences in two {@link DynamicIntervalTree}s, one by the span of their occurrences and one by their phase, the
+ * first occurrence taken modulo the period. A range at least as long as the period is looked up by the span, every
+ * recurrence that spans it has an occurrence in it. A shorter range, like a time slot, is looked up by the phase, so
+ * only the recurrences with an occurrence around the range are visited however long they recur.
+ */
+final class RecurringIndex implements IntervalIndex<Activity> {
+
+    /**
+     * The activities, replaced by the schedule when it moves them into a {@link DynamicIntervalTree}.
+     */
+    IntervalIndex<Activity> activities;
+
+    private final Map<Long, Recurrences> byPeriod = new HashMap<>();
+
+    RecurringIndex(IntervalIndex<Activity> activities, List<Recurrence> recurrences) {
+        this.activities = activities;
+        for (Recurrence recurrence : recurrences) {
+            add(recurrence);
+        }
+    }
+
+    /**
+     * @param recurrence The recurrence to add.
+     */
+    void add(Recurrence recurrence) {
+        final long period = recurrence.getPeriod().getMillis();
+        Recurrences group = byPeriod.get(period);
+        if (group == null) {
+            group = new Recurrences(period);
+            byPeriod.put(period, group);
+        }
+        group.add(recurrence);
+    }
+
+    /**
+     * @param recurrence The recurrence to remove.
+     * @return true if the index contained the recurrence.
+     */
+    boolean remove(Recurrence recurrence) {
+        final long period = recurrence.getPeriod().getMillis();
+        final Recurrences group = byPeriod.get(period);
+        if (group == null || !group.remove(recurrence))
+            return false;
+        if (group.spans.isEmpty())
+            byPeriod.remove(period);
+        return true;
+    }
+
+    /**
+     * @return true if the index has no intervals, found with a query stopped at the first one.
+     */
+    static boolean isEmpty(IntervalIndex<?> index) {
+        return index.query(Long.MIN_VALUE, Long.MAX_VALUE, new IntervalTree.LongVisitor() {
+            @Override
+            public boolean visit(long start, long end) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public long getStart() {
+        long start = Long.MAX_VALUE;
+        for (Recurrences group : byPeriod.values()) {
+            start = Math.min(start, group.spans.getStart());
+        }
+        if (byPeriod.isEmpty() || !isEmpty(activities))
+            start = Math.min(start, activities.getStart());
+        return start;
+    }
+
+    @Override
+    public long getEnd() {
+        long end = Long.MIN_VALUE;
+        for (Recurrences group : byPeriod.values()) {
+            end = Math.max(end, group.spans.getEnd());
+        }
+        if (byPeriod.isEmpty() || !isEmpty(activities))
+            end = Math.max(end, activities.getEnd());
+        return end;
+    }
+
+    @Override
+    public IntervalTree.IntervalData<Activity> query(long index) {
+        return query(index, index);
+    }
+
+    @Override
+    public IntervalTree.IntervalData<Activity> query(long start, long end) {
+        final Combiner combiner = new Combiner(activities.query(start, end));
+        query(start, end, combiner, false);
+        return combiner.data;
+    }
+
+    @Override
+    public boolean query(long index, IntervalTree.Visitor<? super Activity> visitor) {
+        return query(index, index, visitor);
+    }
+
+    @Override
+    public boolean query(long start, long end, IntervalTree.Visitor<? super Activity> visitor) {
+        return query(start, end, visitor, true);
+    }
+
+    private boolean query(final long start, final long end, final IntervalTree.Visitor<? super Activity> visitor,
+                          boolean withActivities) {
+        if (withActivities && !activities.query(start, end, visitor))
+            return false;
+        for (Recurrences group : byPeriod.values()) {
+            final boolean completed = group.query(start, end, new IntervalTree.Visitor<Recurrence>() {
+                @Override
+                public boolean visit(long recurrenceStart, long recurrenceEnd, Recurrence value) {
+                    return value.query(start, end, visitor);
+                }
+            });
+            if (!completed)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean query(long index, IntervalTree.LongVisitor visitor) {
+        return query(index, index, visitor);
+    }
+
+    @Override
+    public boolean query(final long start, final long end, final IntervalTree.LongVisitor visitor) {
+        if (!activities.query(start, end, visitor))
+            return false;
+        for (Recurrences group : byPeriod.values()) {
+            final boolean completed = group.query(start, end, new IntervalTree.Visitor<Recurrence>() {
+                @Override
+                public boolean visit(long recurrenceStart, long recurrenceEnd, Recurrence value) {
+                    return value.query(start, end, visitor);
+                }
+            });
+            if (!completed)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The recurrences of one period.
+     */
+    private static final class Recurrences {
+        private final long period;
+        private final DynamicIntervalTree<Recurrence> spans =
+                new DynamicIntervalTree<>(Collections.<IntervalTree.IntervalData<Recurrence>>emptyList());
+        private final DynamicIntervalTree<Recurrence> phases =
+                new DynamicIntervalTree<>(Collections.<IntervalTree.IntervalData<Recurrence>>emptyList());
+        private long maxDuration; // the longest occurrence ever added, it only grows
+
+        private Recurrences(long period) {
+            this.period = period;
+        }
+
+        private void add(Recurrence recurrence) {
+            spans.insert(span(recurrence));
+            phases.insert(phase(recurrence));
+            final Activity first = recurrence.getFirst();
+            maxDuration = Math.max(maxDuration, first.getEndMillis() - first.getStartMillis());
+        }
+
+        private boolean remove(Recurrence recurrence) {
+            return spans.remove(span(recurrence)) && phases.remove(phase(recurrence));
+        }
+
+        private static IntervalTree.IntervalData<Recurrence> span(Recurrence recurrence) {
+            return new IntervalTree.IntervalData<>(recurrence.getStartMillis(), recurrence.getEndMillis(), recurrence);
+        }
+
+        /**
+         * @return the first occurrence moved by whole periods to start in [0, period).
+         */
+        private IntervalTree.IntervalData<Recurrence> phase(Recurrence recurrence) {
+            final Activity first = recurrence.getFirst();
+            final long phase = first.getStartMillis() - floorDiv(first.getStartMillis(), period) * period;
+            return new IntervalTree.IntervalData<>(phase, phase + first.getEndMillis() - first.getStartMillis(), recurrence);
+        }
+
+        /**
+         * Reports every recurrence that may have an occurrence in the range once. The ones that don't are filtered by
+         * the recurrence itself.
+         */
+        private boolean query(long start, long end, final IntervalTree.Visitor<Recurrence> visitor) {
+            // the range may be too long to measure, like the whole timeline
+            if (end - start < 0 || end - start >= period)
+                return spans.query(start, end, visitor);
+
+            // The range relative to the period it starts in, the occurrences of a recurrence are its phase moved by
+            // whole periods. An occurrence starts before the end of the range, so at most one period after the
+            // phase, and reaches the start of the range, so at most maxDuration / period + 1 periods before it.
+            final long base = floorDiv(start, period) * period;
+            final long from = start - base;
+            final long to = end - base;
+            for (long shift = 1; shift >= -(maxDuration / period) - 1; shift--) {
+                final long next = (shift + 1) * period;
+                final boolean first = shift == 1;
+                final boolean completed = phases.query(from - shift * period, to - shift * period, new IntervalTree.Visitor<Recurrence>() {
+                    @Override
+                    public boolean visit(long start, long end, Recurrence value) {
+                        // the ranges of the shifts don't overlap, a long phase reported by the previous one is skipped
+                        if (!first && start <= to - next && end >= from - next)
+                            return true;
+                        return visitor.visit(start, end, value);
+                    }
+                });
+                if (!completed)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        final long quotient = value / divisor;
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Combines the visited occurrences into the data the interval query returns.
+     */
+    private static final class Combiner implements IntervalTree.Visitor<Activity> {
+        private IntervalTree.IntervalData<Activity> data;
+
+        Combiner(IntervalTree.IntervalData<Activity> data) {
+            this.data = data;
+        }
+
+        @Override
+        public boolean visit(long start, long end, Activity value) {
+            final IntervalTree.IntervalData<Activity> occurrence = new IntervalTree.IntervalData<>(start, end, value);
+            if (data == null)
+                data = occurrence;
+            else
+                data.combined(occurrence);
+            return true;
+        }
+    }
+}
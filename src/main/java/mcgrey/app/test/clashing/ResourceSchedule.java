@@ -0,0 +1,635 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.Interval;
+import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInterval;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This is a schedule of many resources, rooms or people, keyed by the resource. Every resource has a {@link Schedule}
+ * of its own, a shard, the shards are built and laid out concurrently on a pool.
+ * <p/>
+ * The busy blocks of the resources are indexed together in one {@link DynamicIntervalTree}. A busy block is a run of
+ * the clash groups of a resource without a free millisecond between them, see {@link ClashGroup}, so the resource is
+ * busy all the way through every block of it and is free between its blocks. The cross-resource queries, like the
+ * resources busy during a window, are answered from this index in O(min(b, k log b)) for b blocks and k matching
+ * blocks, without visiting the shards. A change of a resource merges or splits its blocks around the changed activity
+ * only.
+ * <p/>
+ * The occurrences of a recurring activity are not expanded into the blocks, a recurrence may recur for years. The
+ * span of every recurrence, from its first occurrence to its last one, is indexed apart and the queries resolve only
+ * the occurrences in their window, see {@link Recurrence#query(long, long, IntervalTree.LongVisitor)}. So a
+ * recurrence is added and removed in O(log r) for r recurrences however many times it recurs.
+ * <p/>
+ * Like in the schedule the bounds of an activity are inclusive, a window is from its start to its end, exclusive.
+ *
+ * @param <R> The type of the resource keys, with the equality of a map key.
+ */
+public class ResourceSchedule<R> {
+
+    /**
+     * Guards the shards, their blocks and the index of the blocks. Every shard guards its activities on its own.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<R, Shard<R>> shards = new LinkedHashMap<>();
+
+    /**
+     * The busy blocks of all the resources.
+     */
+    private final DynamicIntervalTree<Shard<R>> blocks;
+
+    /**
+     * The spans of the recurrences of all the resources.
+     */
+    private final DynamicIntervalTree<Recurring<R>> recurring = new DynamicIntervalTree<>();
+
+    /**
+     * Instantiates the schedule populated with the activities of the resources. The shards are built on the pool.
+     *
+     * @param activities The lists of activities by resource. The order of the activities doesn't matter.
+     * @param pool       The pool to build the shards on.
+     */
+    public ResourceSchedule(Map<R, ? extends List<Activity>> activities, ForkJoinPool pool) {
+        final List<BuildTask<R>> tasks = new ArrayList<>(activities.size());
+        for (Map.Entry<R, ? extends List<Activity>> entry : activities.entrySet()) {
+            tasks.add(new BuildTask<>(new Shard<>(tasks.size(), entry.getKey()), entry.getValue()));
+        }
+        for (BuildTask<R> task : tasks) {
+            pool.execute(task);
+        }
+
+        final List<IntervalTree.IntervalData<Shard<R>>> intervals = new ArrayList<>();
+        for (BuildTask<R> task : tasks) {
+            final Shard<R> shard = task.join();
+            shards.put(shard.resource, shard);
+            intervals.addAll(task.intervals);
+        }
+        blocks = new DynamicIntervalTree<>(intervals);
+    }
+
+    /**
+     * @return the resources, in the order they were added.
+     */
+    public Set<R> getResources() {
+        lock.readLock().lock();
+        try {
+            return ImmutableSet.copyOf(shards.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param resource The resource.
+     * @return the schedule of the resource, or null if the resource is unknown. Its mutators throw
+     * {@link UnsupportedOperationException}, it is changed through {@link #add(Object, Activity)},
+     * {@link #remove(Object, Activity)} and their recurrence variants only, which keep the busy blocks.
+     */
+    public Schedule getSchedule(R resource) {
+        lock.readLock().lock();
+        try {
+            final Shard<R> shard = shards.get(resource);
+            return shard == null ? null : shard.schedule;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the activity to the schedule of the resource, the unknown resource is added first. The busy blocks the
+     * activity touches are merged into one.
+     *
+     * @param resource The resource.
+     * @param activity The activity to add.
+     */
+    public void add(R resource, Activity activity) {
+        lock.writeLock().lock();
+        try {
+            final Shard<R> shard = shard(resource);
+            shard.schedule.insert(activity);
+            mergeBlocks(shard, activity.getStartMillis(), activity.getEndMillis());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the recurring activity to the schedule of the resource, the unknown resource is added first. Only the span
+     * of the recurrence is indexed, the busy blocks are left as they are.
+     *
+     * @param resource   The resource.
+     * @param recurrence The recurrence to add.
+     */
+    public void add(R resource, Recurrence recurrence) {
+        lock.writeLock().lock();
+        try {
+            final Shard<R> shard = shard(resource);
+            shard.schedule.insert(recurrence);
+            shard.recurrences.add(recurrence);
+            recurring.insert(span(shard, recurrence));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the shard of the resource, added if the resource is unknown.
+     */
+    private Shard<R> shard(R resource) {
+        Shard<R> shard = shards.get(resource);
+        if (shard == null) {
+            shard = new Shard<>(shards.size(), resource);
+            shard.schedule = new Schedule(Collections.<Activity>emptyList()).own();
+            shards.put(resource, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * Merges the busy blocks the interval touches, or is adjacent to, into one.
+     */
+    private void mergeBlocks(Shard<R> shard, long start, long end) {
+        final Map.Entry<Long, Long> before = shard.blocks.floorEntry(start);
+        if (before != null && before.getValue() >= start - 1) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+            removeBlock(shard, before.getKey(), before.getValue());
+        }
+        for (Map.Entry<Long, Long> after = shard.blocks.ceilingEntry(start);
+             after != null && after.getKey() <= end + 1; after = shard.blocks.ceilingEntry(start)) {
+            end = Math.max(end, after.getValue());
+            removeBlock(shard, after.getKey(), after.getValue());
+        }
+        addBlock(shard, start, end);
+    }
+
+    /**
+     * Removes the activity from the schedule of the resource. The busy block of the activity is split into the clash
+     * groups that are left of it.
+     *
+     * @param resource The resource.
+     * @param activity The activity to remove.
+     * @return true if the schedule of the resource contained the activity.
+     */
+    public boolean remove(R resource, Activity activity) {
+        lock.writeLock().lock();
+        try {
+            final Shard<R> shard = shards.get(resource);
+            if (shard == null || !shard.schedule.delete(activity)) {
+                return false;
+            }
+            splitBlock(shard, activity.getStartMillis());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the recurring activity from the schedule of the resource and its span from the index.
+     *
+     * @param resource   The resource.
+     * @param recurrence The recurrence to remove.
+     * @return true if the schedule of the resource contained the recurrence.
+     */
+    public boolean remove(R resource, Recurrence recurrence) {
+        lock.writeLock().lock();
+        try {
+            final Shard<R> shard = shards.get(resource);
+            if (shard == null || !shard.schedule.delete(recurrence)) {
+                return false;
+            }
+            shard.recurrences.remove(recurrence);
+            recurring.remove(span(shard, recurrence));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static <R> IntervalTree.IntervalData<Recurring<R>> span(Shard<R> shard, Recurrence recurrence) {
+        return new IntervalTree.IntervalData<>(recurrence.getStartMillis(), recurrence.getEndMillis(),
+                new Recurring<>(shard, recurrence));
+    }
+
+    /**
+     * Splits the busy block at the instant into the clash groups that are left of it.
+     */
+    private void splitBlock(Shard<R> shard, long instant) {
+        final Map.Entry<Long, Long> block = shard.blocks.floorEntry(instant);
+        removeBlock(shard, block.getKey(), block.getValue());
+        // the occurrences are not in the blocks
+        final List<Activity> left = shard.schedule.getSingleClashes(new Activity(block.getKey(), block.getValue(), null));
+        for (long[] span : busyBlocks(left)) {
+            addBlock(shard, span[0], span[1]);
+        }
+    }
+
+    /**
+     * @return the bounds of the busy blocks of the activities, ordered by start.
+     */
+    private static List<long[]> busyBlocks(List<Activity> activities) {
+        final List<long[]> spans = new ArrayList<>();
+        for (ClashGroup group : ClashGroup.group(activities)) {
+            final long start = group.getSpan().getStartMillis();
+            final long end = group.getSpan().getEndMillis();
+            final long[] last = spans.isEmpty() ? null : spans.get(spans.size() - 1);
+            if (last != null && last[1] == start - 1) {
+                last[1] = end;
+            } else {
+                spans.add(new long[]{start, end});
+            }
+        }
+        return spans;
+    }
+
+    private void addBlock(Shard<R> shard, long start, long end) {
+        shard.blocks.put(start, end);
+        blocks.insert(new IntervalTree.IntervalData<>(start, end, shard));
+    }
+
+    private void removeBlock(Shard<R> shard, long start, long end) {
+        shard.blocks.remove(start);
+        blocks.remove(new IntervalTree.IntervalData<>(start, end, shard));
+    }
+
+    /**
+     * @return the number of busy blocks of all the resources.
+     */
+    int getBlockCount() {
+        lock.readLock().lock();
+        try {
+            return blocks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the resources that have an activity in the window, from the index of the busy blocks and the spans of the
+     * recurrences. Only the occurrences of the recurrences that span the window are looked for, the first one found
+     * ends the look.
+     *
+     * @param window The window.
+     * @return The busy resources.
+     */
+    public Set<R> getBusy(ReadableInterval window) {
+        final Set<R> busy = new HashSet<>();
+        if (window.toDurationMillis() == 0) {
+            return busy;
+        }
+        final long first = window.getStartMillis();
+        final long last = window.getEndMillis() - 1;
+        lock.readLock().lock();
+        try {
+            blocks.query(first, last, new IntervalTree.Visitor<Shard<R>>() {
+                @Override
+                public boolean visit(long start, long end, Shard<R> value) {
+                    busy.add(value.resource);
+                    return true;
+                }
+            });
+            recurring.query(first, last, new IntervalTree.Visitor<Recurring<R>>() {
+                @Override
+                public boolean visit(long start, long end, Recurring<R> value) {
+                    if (!busy.contains(value.shard.resource) && occurs(value.recurrence, first, last)) {
+                        busy.add(value.shard.resource);
+                    }
+                    return true;
+                }
+            });
+            return busy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if an occurrence of the recurrence touches the range, both bounds inclusive.
+     */
+    private static boolean occurs(Recurrence recurrence, long start, long end) {
+        return !recurrence.query(start, end, new IntervalTree.LongVisitor() {
+            @Override
+            public boolean visit(long start, long end) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Finds the resources that are busy all the way through the window, the ones with a busy block that covers it.
+     * Only the blocks and the recurrences at the start of the window are visited. A resource whose window starts in
+     * a shorter block or in an occurrence is followed from block to occurrence until a gap or the end of the window.
+     *
+     * @param window The window.
+     * @return The resources busy throughout the window.
+     */
+    public Set<R> getBusyThroughout(ReadableInterval window) {
+        final Set<R> busy = new HashSet<>();
+        if (window.toDurationMillis() == 0) {
+            return busy;
+        }
+        final long first = window.getStartMillis();
+        final long last = window.getEndMillis() - 1;
+        final Set<Shard<R>> started = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            blocks.query(first, new IntervalTree.Visitor<Shard<R>>() {
+                @Override
+                public boolean visit(long start, long end, Shard<R> value) {
+                    if (end >= last) {
+                        busy.add(value.resource);
+                    } else if (!value.recurrences.isEmpty()) {
+                        started.add(value);
+                    }
+                    return true;
+                }
+            });
+            recurring.query(first, new IntervalTree.Visitor<Recurring<R>>() {
+                @Override
+                public boolean visit(long start, long end, Recurring<R> value) {
+                    started.add(value.shard);
+                    return true;
+                }
+            });
+            for (Shard<R> shard : started) {
+                if (!busy.contains(shard.resource) && covers(shard, first, last)) {
+                    busy.add(shard.resource);
+                }
+            }
+            return busy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the busy blocks and the occurrences of the shard cover the range without a gap, both bounds
+     * inclusive. Every step moves past the block or the occurrence that reaches the farthest from the instant.
+     */
+    private static <R> boolean covers(Shard<R> shard, long start, long end) {
+        final long[] reach = new long[1];
+        long instant = start;
+        while (true) {
+            reach[0] = instant - 1;
+            final Map.Entry<Long, Long> block = shard.blocks.floorEntry(instant);
+            if (block != null && block.getValue() >= instant) {
+                reach[0] = block.getValue();
+            }
+            for (Recurrence recurrence : shard.recurrences) {
+                recurrence.query(instant, instant, new IntervalTree.LongVisitor() {
+                    @Override
+                    public boolean visit(long start, long end) {
+                        reach[0] = Math.max(reach[0], end);
+                        return true;
+                    }
+                });
+            }
+            if (reach[0] < instant) {
+                return false;
+            }
+            if (reach[0] >= end) {
+                return true;
+            }
+            instant = reach[0] + 1;
+        }
+    }
+
+    /**
+     * @param window The window.
+     * @return The resources that have no activity in the window.
+     */
+    public Set<R> getFree(ReadableInterval window) {
+        lock.readLock().lock();
+        try {
+            final Set<R> busy = getBusy(window);
+            final Set<R> free = new HashSet<>();
+            for (R resource : shards.keySet()) {
+                if (!busy.contains(resource)) {
+                    free.add(resource);
+                }
+            }
+            return free;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the earliest gaps common to the resources, see {@link FreeSlots#find(Collection, ReadableInterval,
+     * ReadableDuration, int)}. The unknown resources are free all the time.
+     *
+     * @param resources The resources, for example the attendees of a meeting.
+     * @param window    The window to search in.
+     * @param duration  The shortest gap.
+     * @param limit     The number of gaps to find at most.
+     * @return The whole gaps ordered by start and clipped to the window.
+     */
+    public List<Interval> getFreeSlots(Collection<R> resources, ReadableInterval window, ReadableDuration duration,
+                                       int limit) {
+        lock.readLock().lock();
+        try {
+            final List<Schedule> schedules = new ArrayList<>(resources.size());
+            for (R resource : resources) {
+                final Shard<R> shard = shards.get(resource);
+                if (shard != null) {
+                    schedules.add(shard.schedule);
+                }
+            }
+            return FreeSlots.find(schedules, window, duration, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the activities of every resource the candidate clashes with. Only the shards with a busy block or an
+     * occurrence around the candidate are queried.
+     *
+     * @param candidate The proposed activity.
+     * @return The clashing activities by resource, the resources without a clash are left out.
+     */
+    public Map<R, List<Activity>> getClashes(Activity candidate) {
+        final Set<Shard<R>> touched = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            blocks.query(candidate.getStartMillis(), candidate.getEndMillis(), new IntervalTree.Visitor<Shard<R>>() {
+                @Override
+                public boolean visit(long start, long end, Shard<R> value) {
+                    touched.add(value);
+                    return true;
+                }
+            });
+            recurring.query(candidate.getStartMillis(), candidate.getEndMillis(), new IntervalTree.Visitor<Recurring<R>>() {
+                @Override
+                public boolean visit(long start, long end, Recurring<R> value) {
+                    if (!touched.contains(value.shard)
+                            && occurs(value.recurrence, candidate.getStartMillis(), candidate.getEndMillis())) {
+                        touched.add(value.shard);
+                    }
+                    return true;
+                }
+            });
+
+            final Map<R, List<Activity>> clashes = new HashMap<>();
+            for (Shard<R> shard : touched) {
+                clashes.put(shard.resource, shard.schedule.getClashes(candidate));
+            }
+            return clashes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lays out the schedules of all the resources on the pool, each one by {@link Schedule#getSlotsBy(ReadableDuration)},
+     * so every shard keeps its layout up to date from now on.
+     *
+     * @param slotSize The size of a time slot.
+     * @param pool     The pool to lay out the shards on.
+     * @return The schedule layouts by resource.
+     */
+    public Map<R, Schedule.ScheduleLayout> getSlotsBy(ReadableDuration slotSize, ForkJoinPool pool) {
+        lock.readLock().lock();
+        try {
+            final List<LayoutTask<R>> tasks = new ArrayList<>(shards.size());
+            for (Shard<R> shard : shards.values()) {
+                tasks.add(new LayoutTask<>(shard, slotSize));
+            }
+            for (LayoutTask<R> task : tasks) {
+                pool.execute(task);
+            }
+
+            final Map<R, Schedule.ScheduleLayout> layouts = new LinkedHashMap<>();
+            for (LayoutTask<R> task : tasks) {
+                layouts.put(task.shard.resource, task.join());
+            }
+            return layouts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The schedule of a resource and its busy blocks. The shards are ordered by their ids for the index of the blocks.
+     */
+    private static final class Shard<R> implements Comparable<Shard<R>> {
+        private final int id;
+        private final R resource;
+        private final TreeMap<Long, Long> blocks = new TreeMap<>(); // the ends of the busy blocks by start
+        private final List<Recurrence> recurrences = new ArrayList<>();
+        private Schedule schedule;
+
+        private Shard(int id, R resource) {
+            this.id = id;
+            this.resource = resource;
+        }
+
+        @Override
+        public int compareTo(Shard<R> that) {
+            return Integer.compare(id, that.id);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(resource);
+        }
+    }
+
+    /**
+     * A recurrence of a shard, the value of the index of the spans.
+     */
+    private static final class Recurring<R> implements Comparable<Recurring<R>> {
+        private final Shard<R> shard;
+        private final Recurrence recurrence;
+
+        private Recurring(Shard<R> shard, Recurrence recurrence) {
+            this.shard = shard;
+            this.recurrence = recurrence;
+        }
+
+        @Override
+        public int compareTo(Recurring<R> that) {
+            final int compared = shard.compareTo(that.shard);
+            return compared != 0 ? compared : recurrence.compareTo(that.recurrence);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * shard.id + recurrence.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Recurring) {
+                Recurring<?> that = (Recurring<?>) obj;
+
+                return that.shard == shard && that.recurrence.equals(recurrence);
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Builds the schedule of a resource and finds its busy blocks.
+     */
+    private static final class BuildTask<R> extends RecursiveTask<Shard<R>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Shard<R> shard;
+        private final List<Activity> activities;
+        private final List<IntervalTree.IntervalData<Shard<R>>> intervals = new ArrayList<>();
+
+        private BuildTask(Shard<R> shard, List<Activity> activities) {
+            this.shard = shard;
+            this.activities = activities;
+        }
+
+        @Override
+        protected Shard<R> compute() {
+            shard.schedule = new Schedule(activities).own();
+            for (long[] span : busyBlocks(activities)) {
+                shard.blocks.put(span[0], span[1]);
+                intervals.add(new IntervalTree.IntervalData<>(span[0], span[1], shard));
+            }
+            return shard;
+        }
+    }
+
+    /**
+     * Lays out the schedule of a resource.
+     */
+    private static final class LayoutTask<R> extends RecursiveTask<Schedule.ScheduleLayout> {
+        private static final long serialVersionUID = 1L;
+
+        private final Shard<R> shard;
+        private final ReadableDuration slotSize;
+
+        private LayoutTask(Shard<R> shard, ReadableDuration slotSize) {
+            this.shard = shard;
+            this.slotSize = slotSize;
+        }
+
+        @Override
+        protected Schedule.ScheduleLayout compute() {
+            return shard.schedule.getSlotsBy(slotSize);
+        }
+    }
+}
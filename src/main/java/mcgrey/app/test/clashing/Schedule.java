@@ -1,35 +1,120 @@
 package mcgrey.app.test.clashing;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 import org.joda.time.Interval;
 import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInstant;
 import org.joda.time.ReadableInterval;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * This is a schedule that contains activities. You have to instantiate it with a list of activities.
+ * This is a schedule that contains activities. You have to instantiate it with a list of activities, and optionally
+ * with a list of {@link Recurrence recurring activities}.
  * {@link #getSlotsBy(org.joda.time.ReadableDuration)} returns the list of time slots that contain activity bars
  * with calculated metrics.
  */
 public class Schedule {
     /**
-     * The interval tree data structure that helps in slicing activities into time slots.
+     * The way the activities are sliced into time slots. Both engines produce the same layout.
      */
-    private IntervalTree<Activity> tree;
+    public enum Engine {
+        /**
+         * Runs a separate range query against the interval tree for every time slot.
+         */
+        TREE,
+        /**
+         * Sorts the activities once and sweeps the timeline in a single pass.
+         */
+        SWEEP
+    }
+
+    /**
+     * The number of the consecutive time slots that share a traversal of the interval tree, see
+     * {@link IntervalTree#query(long[], long[], IntervalTree.RangeVisitor)}.
+     */
+    private static final int SLOT_BLOCK = 1024;
+
+    /**
+     * The number of the candidates of a run that share a traversal of the index, see {@link #getClashes(List)}.
+     */
+    private static final int CLASH_CHUNK = 32;
+
+    /**
+     * The candidates share a traversal if the first one of their chunk has at most this number of clashes.
+     */
+    private static final int SPARSE_CLASHES = 8;
+
+    /**
+     * The number of the activities {@link #getClashGroups()} reads from the tree at a time.
+     */
+    static final int GROUP_WINDOW = 1024;
+
+    /**
+     * Converts an activity into the interval tree entry.
+     */
+    private static final Function<Activity, IntervalTree.IntervalData<Activity>> toIntervalData =
+            new Function<Activity, IntervalTree.IntervalData<Activity>>() {
+                @Override
+                public IntervalTree.IntervalData<Activity> apply(Activity input) {
+                    if (input != null) {
+                        return new IntervalTree.IntervalData<>(input.getStartMillis(), input.getEndMillis(), input);
+                    } else {
+                        return null;
+                    }
+
+                }
+            };
+
+    /**
+     * Tells if the time slot has members.
+     */
+    private static final Predicate<TimeSlot> isOccupied = new Predicate<TimeSlot>() {
+        @Override
+        public boolean apply(TimeSlot input) {
+            return !input.getMembers().isEmpty();
+        }
+    };
+
+    /**
+     * The interval tree data structure that helps in slicing activities into time slots. It is an {@link IntervalTree},
+     * or the index the schedule was given, until the schedule is changed for the first time and a
+     * {@link DynamicIntervalTree} after that. Once the schedule has recurrences it is a {@link RecurringIndex} over
+     * that index, so every query expands the occurrences in its range.
+     */
+    private IntervalIndex<Activity> tree;
+
+    /**
+     * Guards the tree and the kept layout: the layouts read them, {@link #add(Activity)} and
+     * {@link #remove(Activity)} change them.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The last computed layout, kept up to date by {@link #add(Activity)} and {@link #remove(Activity)}.
+     */
+    private volatile LayoutState layoutState;
 
     /**
-     * The time slots index.
+     * The number of changes of the schedule, see {@link #getVersion()}.
      */
-    private static Map<Interval, TimeSlot> timeSlotCache = new HashMap<>();
+    private volatile long version;
 
     /**
-     * The activity bars index.
+     * Tells if the schedule is owned by a {@link ResourceSchedule}, which changes it and keeps its busy blocks. The
+     * public mutators of an owned schedule throw.
      */
-    private static Map<Activity, ActivityBar> activityBarCache = new HashMap<>();
+    private volatile boolean owned;
 
     /**
      * Instantiates the schedule populated with activities.
@@ -37,97 +122,1220 @@ public class Schedule {
      * @param activities The list of activities. The order doesn't matter.
      */
     public Schedule(List<Activity> activities) {
-        List<IntervalTree.IntervalData<Activity>> intervals = Lists.transform(
-                activities,
-                new Function<Activity, IntervalTree.IntervalData<Activity>>() {
-                    @Override
-                    public IntervalTree.IntervalData<Activity> apply(Activity input) {
-                        if (input != null) {
-                            final ReadableInterval interval = input.getInterval();
-                            return new IntervalTree.IntervalData<>(interval.getStartMillis(), interval.getEndMillis(), input);
+        List<IntervalTree.IntervalData<Activity>> intervals = Lists.transform(activities, toIntervalData);
+
+        tree = new IntervalTree<>(intervals);
+    }
+
+    /**
+     * Instantiates the schedule populated with activities and recurring activities. The recurrences are stored once,
+     * their occurrences are expanded only in the ranges the schedule queries or lays out, and clash and take part in
+     * the metrics like the other activities.
+     *
+     * @param activities  The list of activities. The order doesn't matter.
+     * @param recurrences The list of recurring activities. The order doesn't matter.
+     */
+    public Schedule(List<Activity> activities, List<Recurrence> recurrences) {
+        this(activities);
+        if (!recurrences.isEmpty()) {
+            tree = new RecurringIndex(tree, recurrences);
+        }
+    }
+
+    /**
+     * Instantiates the schedule on the index of its activities, for example a {@link MappedIntervalIndex} opened
+     * from a file, without building anything. The index is not changed, the first change of the schedule copies
+     * the activities into a {@link DynamicIntervalTree}.
+     *
+     * @param activities The index of the activities.
+     */
+    public Schedule(IntervalIndex<Activity> activities) {
+        tree = activities;
+    }
+
+    /**
+     * Adds the activity to the schedule in O(log n). The first change of the schedule moves its activities into a
+     * {@link DynamicIntervalTree} once, the following ones don't rebuild anything.
+     * <p/>
+     * If the schedule keeps a layout, only the time slots and activity bars of the clash group of the activity are
+     * recomputed, see {@link #getSlotsBy(ReadableDuration)}.
+     *
+     * @param activity The activity to add.
+     * @throws UnsupportedOperationException if the schedule is owned by a {@link ResourceSchedule}.
+     */
+    public void add(Activity activity) {
+        checkNotOwned();
+        insert(activity);
+    }
+
+    void insert(Activity activity) {
+        lock.writeLock().lock();
+        try {
+            dynamicTree().insert(toIntervalData.apply(activity));
+            version++;
+            relayout(activity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the activity from the schedule in O(log n). The kept layout is updated the same way as by
+     * {@link #add(Activity)}.
+     *
+     * @param activity The activity to remove.
+     * @return true if the schedule contained the activity.
+     * @throws UnsupportedOperationException if the schedule is owned by a {@link ResourceSchedule}.
+     */
+    public boolean remove(Activity activity) {
+        checkNotOwned();
+        return delete(activity);
+    }
+
+    boolean delete(Activity activity) {
+        lock.writeLock().lock();
+        try {
+            final boolean removed = dynamicTree().remove(toIntervalData.apply(activity));
+            if (removed) {
+                version++;
+                relayout(activity);
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the recurring activity to the schedule in O(log r) for r recurrences, nothing is expanded. The kept layout
+     * is dropped, since the occurrences may touch the time slots all over the schedule.
+     *
+     * @param recurrence The recurrence to add.
+     * @throws UnsupportedOperationException if the schedule is owned by a {@link ResourceSchedule}.
+     */
+    public void add(Recurrence recurrence) {
+        checkNotOwned();
+        insert(recurrence);
+    }
+
+    void insert(Recurrence recurrence) {
+        lock.writeLock().lock();
+        try {
+            if (!(tree instanceof RecurringIndex)) {
+                tree = new RecurringIndex(tree, Collections.<Recurrence>emptyList());
+            }
+            ((RecurringIndex) tree).add(recurrence);
+            version++;
+            layoutState = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the recurring activity from the schedule in O(log r). The kept layout is dropped like by
+     * {@link #add(Recurrence)}.
+     *
+     * @param recurrence The recurrence to remove.
+     * @return true if the schedule contained the recurrence.
+     * @throws UnsupportedOperationException if the schedule is owned by a {@link ResourceSchedule}.
+     */
+    public boolean remove(Recurrence recurrence) {
+        checkNotOwned();
+        return delete(recurrence);
+    }
+
+    boolean delete(Recurrence recurrence) {
+        lock.writeLock().lock();
+        try {
+            final boolean removed = tree instanceof RecurringIndex && ((RecurringIndex) tree).remove(recurrence);
+            if (removed) {
+                version++;
+                layoutState = null;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the schedule over to a {@link ResourceSchedule}, which changes it through {@link #insert(Activity)},
+     * {@link #delete(Activity)} and their recurrence variants from now on.
+     *
+     * @return the schedule.
+     */
+    Schedule own() {
+        owned = true;
+        return this;
+    }
+
+    private void checkNotOwned() {
+        if (owned) {
+            throw new UnsupportedOperationException("The schedule is changed through the resource schedule that owns it.");
+        }
+    }
+
+    /**
+     * The version grows on every change of the schedule, so a layout computed at one version is out of date once the
+     * version is another one, see {@link LayoutCache}.
+     *
+     * @return the version of the activities of the schedule.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private DynamicIntervalTree<Activity> dynamicTree() {
+        // the occurrences of the recurrences stay out of the tree
+        final IntervalIndex<Activity> activities = tree instanceof RecurringIndex ? ((RecurringIndex) tree).activities : tree;
+        if (activities instanceof DynamicIntervalTree) {
+            return (DynamicIntervalTree<Activity>) activities;
+        }
+
+        final List<IntervalTree.IntervalData<Activity>> intervals = new ArrayList<>();
+        activities.query(Long.MIN_VALUE, Long.MAX_VALUE, new IntervalTree.Visitor<Activity>() {
+            @Override
+            public boolean visit(long start, long end, Activity value) {
+                return intervals.add(new IntervalTree.IntervalData<>(start, end, value));
+            }
+        });
+        final DynamicIntervalTree<Activity> dynamic = new DynamicIntervalTree<>(intervals);
+        if (tree instanceof RecurringIndex) {
+            ((RecurringIndex) tree).activities = dynamic;
+        } else {
+            tree = dynamic;
+        }
+        return dynamic;
+    }
+
+    /**
+     * Finds the activities the candidate clashes with, in O(log n + k) for k clashes, without laying anything out.
+     * Like everywhere in the schedule both bounds are inclusive, so the activities that meet the candidate at an
+     * instant clash with it, and an activity of the schedule clashes with itself.
+     *
+     * @param candidate The proposed activity, it doesn't have to be in the schedule.
+     * @return The clashing activities in the order of the index.
+     */
+    public List<Activity> getClashes(Activity candidate) {
+        lock.readLock().lock();
+        try {
+            return getActivities(candidate.getStartMillis(), candidate.getEndMillis());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the activities the candidate clashes with like {@link #getClashes(Activity)}, without the occurrences of
+     * the recurrences.
+     */
+    List<Activity> getSingleClashes(Activity candidate) {
+        lock.readLock().lock();
+        try {
+            final IntervalIndex<Activity> activities = tree instanceof RecurringIndex ? ((RecurringIndex) tree).activities : tree;
+            final List<Activity> clashes = new ArrayList<>();
+            activities.query(candidate.getStartMillis(), candidate.getEndMillis(), new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    return clashes.add(value);
+                }
+            });
+            return clashes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tells if the candidate clashes with any activity, the query stops at the first clash.
+     *
+     * @param candidate The proposed activity.
+     * @return true if the candidate clashes, see {@link #getClashes(Activity)}.
+     */
+    public boolean clashes(Activity candidate) {
+        lock.readLock().lock();
+        try {
+            return !tree.query(candidate.getStartMillis(), candidate.getEndMillis(), new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    return false;
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the activities the candidate clashes with, without collecting them.
+     *
+     * @param candidate The proposed activity.
+     * @return The number of the clashing activities, see {@link #getClashes(Activity)}.
+     */
+    public int countClashes(Activity candidate) {
+        final int[] count = new int[1];
+        lock.readLock().lock();
+        try {
+            tree.query(candidate.getStartMillis(), candidate.getEndMillis(), new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    count[0]++;
+                    return true;
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count[0];
+    }
+
+    /**
+     * Reports the bounds of the activities that touch the range, in the order of the index, see {@link FreeSlots}.
+     *
+     * @param start   The start of the range, inclusive.
+     * @param end     The end of the range, inclusive.
+     * @param visitor The visitor of the bounds.
+     */
+    void queryBusy(long start, long end, IntervalTree.LongVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            tree.query(start, end, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the clashes of every candidate, for example the proposed times of one booking. The candidates that
+     * overlap or meet form a run, and the runs are split into chunks of {@value #CLASH_CHUNK}. In a sparse chunk the
+     * index is traversed once for all the candidates and every activity it reports is handed to the candidates it
+     * clashes with, found by a binary search over their starts, so m candidates cost one descent instead of m. In a
+     * crowded chunk the clashes outweigh the descents and the candidates are queried one by one, the chunk is crowded
+     * if its first candidate has more than {@value #SPARSE_CLASHES} clashes.
+     *
+     * @param candidates The proposed activities ordered by start.
+     * @return The clashing activities of every candidate in the order of the index, in the order of the candidates.
+     * @throws IllegalArgumentException if the candidates are not ordered by start.
+     */
+    public List<List<Activity>> getClashes(List<Activity> candidates) {
+        final List<List<Activity>> result = new ArrayList<>(candidates.size());
+        lock.readLock().lock();
+        try {
+            int from = 0;
+            while (from < candidates.size()) {
+                // the run of the candidates that overlap or meet, the next run starts after all of them
+                final long runStart = candidates.get(from).getStartMillis();
+                long runEnd = candidates.get(from).getEndMillis();
+                int to = from + 1;
+                for (; to < candidates.size() && candidates.get(to).getStartMillis() <= runEnd; to++) {
+                    if (candidates.get(to).getStartMillis() < candidates.get(to - 1).getStartMillis())
+                        throw new IllegalArgumentException("The candidates must be ordered by start: " + candidates.get(to));
+                    runEnd = Math.max(runEnd, candidates.get(to).getEndMillis());
+                }
+
+                if (to - from == 1) {
+                    result.add(getActivities(runStart, runEnd));
+                } else {
+                    for (int chunk = from; chunk < to; chunk += CLASH_CHUNK) {
+                        // the first candidate tells how crowded the chunk is
+                        final List<Activity> first = getActivities(candidates.get(chunk).getStartMillis(), candidates.get(chunk).getEndMillis());
+                        result.add(first);
+                        final List<Activity> rest = candidates.subList(chunk + 1, Math.min(to, chunk + CLASH_CHUNK));
+                        if (rest.size() > 1 && first.size() <= SPARSE_CLASHES) {
+                            result.addAll(getClashChunk(rest));
                         } else {
-                            return null;
+                            for (Activity candidate : rest) {
+                                result.add(getActivities(candidate.getStartMillis(), candidate.getEndMillis()));
+                            }
                         }
+                    }
+                }
+                from = to;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Finds the clashes of the candidates ordered by start in one traversal of the index. The activity clashes with the
+     * candidates that start up to its end and end from its start on; the ones that start up to its end are a prefix
+     * of the candidates, and only the ones that start at most the longest candidate length before it can end after its start.
+     */
+    private List<List<Activity>> getClashChunk(List<Activity> candidates) {
+        final int size = candidates.size();
+        final long[] starts = new long[size];
+        final long[] ends = new long[size];
+        long maxLength = 0;
+        long lastEnd = Long.MIN_VALUE;
+        final List<List<Activity>> clashes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            starts[i] = candidates.get(i).getStartMillis();
+            ends[i] = candidates.get(i).getEndMillis();
+            maxLength = Math.max(maxLength, ends[i] - starts[i]);
+            lastEnd = Math.max(lastEnd, ends[i]);
+            clashes.add(new ArrayList<Activity>());
+        }
 
+        final long reach = maxLength;
+        tree.query(starts[0], lastEnd, new IntervalTree.Visitor<Activity>() {
+            @Override
+            public boolean visit(long start, long end, Activity value) {
+                final int last = firstAfter(starts, end);
+                for (int i = firstAfter(starts, start - reach - 1); i < last; i++) {
+                    if (ends[i] >= start) {
+                        clashes.get(i).add(value);
+                    }
+                }
+                return true;
+            }
+        });
+        return clashes;
+    }
+
+    /**
+     * @return the index of the first value greater than the given one in the ascending values.
+     */
+    private static int firstAfter(long[] values, long value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (values[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the groups of clashing activities without laying them out, in O(n log n). The activities are streamed
+     * from the tree ordered by start, a window of about {@value #GROUP_WINDOW} of them at a time, so only a window and
+     * the current group are held in memory.
+     *
+     * @return The groups ordered by start, built on demand. Every iteration reads the schedule again and its iterator
+     * throws {@link ConcurrentModificationException} if the schedule changes meanwhile.
+     */
+    public Iterable<ClashGroup> getClashGroups() {
+        return new Iterable<ClashGroup>() {
+            @Override
+            public Iterator<ClashGroup> iterator() {
+                return ClashGroup.group(new ByStart());
+            }
+        };
+    }
+
+    /**
+     * Iterates the activities ordered by start, one window of the timeline at a time. The window is halved or doubled
+     * to keep about {@value #GROUP_WINDOW} activities in it.
+     */
+    private class ByStart extends AbstractIterator<Activity> {
+        private final long version;
+        private final long end;
+        private long cursor;
+        private long window;
+        private boolean done;
+        private Iterator<Activity> chunk = Collections.emptyIterator();
+
+        private ByStart() {
+            lock.readLock().lock();
+            try {
+                version = Schedule.this.version;
+                done = RecurringIndex.isEmpty(tree);
+                cursor = tree.getStart();
+                end = tree.getEnd();
+            } finally {
+                lock.readLock().unlock();
+            }
+            window = Math.max(1, (end - cursor) / GROUP_WINDOW);
+        }
+
+        @Override
+        protected Activity computeNext() {
+            while (!chunk.hasNext()) {
+                if (done) {
+                    return endOfData();
+                }
+                chunk = nextWindow();
+            }
+            return chunk.next();
+        }
+
+        private Iterator<Activity> nextWindow() {
+            final long from = cursor;
+            // the span may be too long to measure
+            final long to = end - from >= 0 && end - from < window ? end : from + window - 1;
+            final List<Activity> activities = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                if (version != Schedule.this.version) {
+                    throw new ConcurrentModificationException("The schedule has changed during the iteration.");
+                }
+                // the activities that started in an earlier window were reported with it
+                tree.query(from, to, new IntervalTree.Visitor<Activity>() {
+                    @Override
+                    public boolean visit(long start, long end, Activity value) {
+                        return start < from || activities.add(value);
                     }
                 });
+            } finally {
+                lock.readLock().unlock();
+            }
 
-        tree = new IntervalTree<>(intervals);
+            done = to == end;
+            cursor = to + 1;
+            if (activities.size() > 2 * GROUP_WINDOW) {
+                window = Math.max(1, window / 2);
+            } else if (activities.size() < GROUP_WINDOW / 2 && window < Long.MAX_VALUE / 2) {
+                window *= 2;
+            }
+            Collections.sort(activities);
+            return activities.iterator();
+        }
+    }
+
+    /**
+     * @return the activities that touch the range, in the order of the tree.
+     */
+    private List<Activity> getActivities(long start, long end) {
+        final List<Activity> activities = new ArrayList<>();
+        tree.query(start, end, new IntervalTree.Visitor<Activity>() {
+            @Override
+            public boolean visit(long start, long end, Activity value) {
+                return activities.add(value);
+            }
+        });
+        return activities;
     }
 
+    /**
+     * Lays out the activities into time slots. The schedule keeps the last layout and updates it on every change,
+     * so asking again for the same slot size doesn't recompute anything.
+     * <p/>
+     * A slot size that is a whole multiple of the kept one is derived from the kept layout without querying the
+     * tree: the members of the adjacent kept time slots are merged and the metrics are calculated again. The kept
+     * layout stays, so a view lays out its finest zoom level once and gets the coarser ones from it.
+     * <p/>
+     * The layouts returned for the kept slot size share their time slots and activity bars with the kept layout, so
+     * they are read-only. A change of the schedule replaces the affected slots and bars instead of modifying them.
+     *
+     * @param slotSize The size of a time slot.
+     * @return The schedule layout.
+     */
     public ScheduleLayout getSlotsBy(ReadableDuration slotSize) {
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        final long started = listener == null ? 0 : System.nanoTime();
+        lock.readLock().lock();
+        try {
+            final LayoutState state = layoutState;
+            if (state != null && state.slotSize.getMillis() == slotSize.getMillis()) {
+                return laidOut(listener, started,
+                        new ScheduleLayout(slotSize, state.origin, state.count, state.slots.values(), state.bars.values()));
+            }
+            if (state != null && slotSize.getMillis() % state.slotSize.getMillis() == 0) {
+                return laidOut(listener, started, coarsen(state, slotSize));
+            }
+            return laidOut(listener, started, layout(slotSize, Engine.TREE, null));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lays out the activities into time slots using the given engine. The layout is always computed from scratch and
+     * then kept by the schedule.
+     *
+     * @param slotSize The size of a time slot.
+     * @param engine   The engine that slices the activities into time slots.
+     * @return The schedule layout.
+     */
+    public ScheduleLayout getSlotsBy(ReadableDuration slotSize, Engine engine) {
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        final long started = listener == null ? 0 : System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return laidOut(listener, started, layout(slotSize, engine, null));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lays out the activities into time slots in parallel. The slots are split into ranges at the slot boundaries
+     * that no activity crosses, so every clash group falls into one range and the ranges can't affect each other's
+     * metrics. The ranges are laid out on the pool with the given engine and merged into one layout, the same as the
+     * sequential one. The layout is then kept by the schedule.
+     *
+     * @param slotSize The size of a time slot.
+     * @param engine   The engine that slices the activities into time slots.
+     * @param pool     The pool to lay out the ranges on.
+     * @return The schedule layout.
+     */
+    public ScheduleLayout getSlotsBy(ReadableDuration slotSize, Engine engine, ForkJoinPool pool) {
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        final long started = listener == null ? 0 : System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return laidOut(listener, started, layout(slotSize, engine, pool));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lays out only the activities that touch the window, for example the week shown by a view. The time slots are
+     * the ones of the full layout that overlap the window, the activity bars are the ones of their members. The
+     * metrics are the same as in the full layout, the neighbours of the activities are taken into account even if they
+     * are out of the window. The work depends on the activities around the window, not on the span of the schedule.
+     * <p/>
+     * The layout is not kept by the schedule. An empty window has no time slots.
+     *
+     * @param slotSize The size of a time slot.
+     * @param window   The window to lay out.
+     * @return The schedule layout of the window.
+     */
+    public ScheduleLayout getSlotsBy(ReadableDuration slotSize, ReadableInterval window) {
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        final long started = listener == null ? 0 : System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return laidOut(listener, started, layout(slotSize, window));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reports the layout to the instrumentation listener, if any.
+     */
+    private static ScheduleLayout laidOut(Instrumentation.Listener listener, long started, ScheduleLayout layout) {
+        if (listener != null) {
+            listener.laidOut(layout.count, layout.occupied.length, System.nanoTime() - started);
+        }
+        return layout;
+    }
+
+    private ScheduleLayout layout(ReadableDuration slotSize, Engine engine, ForkJoinPool pool) {
         final long start = tree.getStart();
-        final long end = tree.getEnd();
+        final long size = slotSize.getMillis();
+        final int count = slotCount(start, tree.getEnd(), size);
 
-        // Flash indexes
-        timeSlotCache.clear();
-        activityBarCache.clear();
+        final List<TimeSlot> result;
+        final Map<Activity, ActivityBar> bars;
+        if (pool == null) {
+            // Every layout run has its own indexes, so the schedules can be laid out concurrently
+            final LayoutContext context = new LayoutContext();
+            result = layout(context, engine, start, 0, count, size);
+            bars = context.activityBarCache;
+        } else {
+            final int[] cuts = cuts(start, count, size, pool.getParallelism() * 4);
+            final List<LayoutTask> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < cuts.length; i++) {
+                tasks.add(new LayoutTask(this, engine, start, cuts[i], cuts[i + 1], size));
+            }
+            for (LayoutTask task : tasks) {
+                pool.execute(task);
+            }
 
-        final List<TimeSlot> result = new LinkedList<>();
+            result = new ArrayList<>(count);
+            bars = new HashMap<>();
+            for (LayoutTask task : tasks) {
+                result.addAll(task.join());
+                bars.putAll(task.context.activityBarCache);
+            }
+        }
 
-        Interval timeSlotInterval = new Interval(start, start + slotSize.getMillis());
-        do {
-            result.add(getTimeSlot(timeSlotInterval));
-            timeSlotInterval = new Interval(timeSlotInterval.getEndMillis(), timeSlotInterval.getEndMillis() + slotSize.getMillis());
-        } while (timeSlotInterval.getEndMillis() <= end);
+        layoutState = new LayoutState(slotSize, start, count, result, bars);
+
+        return new ScheduleLayout(slotSize, start, count, result, bars.values());
+    }
+
+    /**
+     * Lays out and calculates the time slots from the first one up to the last one, exclusive.
+     *
+     * @param context  The layout run.
+     * @param engine   The engine that slices the activities into time slots.
+     * @param origin   The start of the schedule.
+     * @param from     The index of the first time slot.
+     * @param to       The index after the last time slot.
+     * @param slotSize The size of a time slot in milliseconds.
+     * @return The time slots.
+     */
+    private List<TimeSlot> layout(LayoutContext context, Engine engine, long origin, int from, int to, long slotSize) {
+        final List<TimeSlot> result = slice(context, engine, origin, from, to, slotSize);
 
         calculate(result);
 
-        Iterable<ActivityBar> bars = Iterables.transform(activityBarCache.entrySet(),
-                new Function<Map.Entry<Activity, ActivityBar>, ActivityBar>() {
-                    @Override
-                    public ActivityBar apply(Map.Entry<Activity, ActivityBar> input) {
-                        return input.getValue();
+        return result;
+    }
+
+    /**
+     * Slices the activities into the time slots from the first one up to the last one, exclusive, without calculating
+     * them. Only the occupied time slots are created.
+     */
+    private List<TimeSlot> slice(LayoutContext context, Engine engine, long origin, int from, int to, long slotSize) {
+        switch (engine) {
+            case SWEEP:
+                return sweep(context, origin, from, to, slotSize);
+            default:
+                if (tree instanceof IntervalTree) {
+                    return sliceBatched(context, (IntervalTree<Activity>) tree, origin, from, to, slotSize);
+                }
+                final List<TimeSlot> result = new ArrayList<>(to - from);
+
+                for (int index = from; index < to; index++) {
+                    final long slotStart = origin + index * slotSize;
+                    final TimeSlot slot = getTimeSlot(context, new Interval(slotStart, slotStart + slotSize));
+                    if (slot != null) {
+                        result.add(slot);
                     }
-                });
+                }
+                return result;
+        }
+    }
+
+    /**
+     * Slices the activities into the time slots with the batched range queries of the interval tree, a block of
+     * consecutive slots per traversal, so the neighbouring slots share the descents. The matching activities go
+     * straight into the bars of their slots, nothing is collected per slot first. The slots are the same as the ones
+     * of {@link #getTimeSlot(LayoutContext, Interval)}.
+     */
+    private static List<TimeSlot> sliceBatched(final LayoutContext context, IntervalTree<Activity> tree, long origin,
+                                               int from, int to, long slotSize) {
+        final List<TimeSlot> result = new ArrayList<>();
+        final long[] starts = new long[Math.min(SLOT_BLOCK, to - from)];
+        final long[] ends = new long[starts.length];
+        final TimeSlot[] slots = new TimeSlot[starts.length];
+
+        for (int block = from; block < to; block += SLOT_BLOCK) {
+            final int size = Math.min(SLOT_BLOCK, to - block);
+            final long[] blockStarts = size == starts.length ? starts : Arrays.copyOf(starts, size);
+            final long[] blockEnds = size == ends.length ? ends : Arrays.copyOf(ends, size);
+            for (int i = 0; i < size; i++) {
+                blockStarts[i] = origin + (block + i) * slotSize;
+                blockEnds[i] = blockStarts[i] + slotSize - 1;
+            }
 
-        return new ScheduleLayout(slotSize, result, bars);
+            tree.query(blockStarts, blockEnds, new IntervalTree.RangeVisitor<Activity>() {
+                @Override
+                public boolean visit(int range, long start, long end, Activity value) {
+                    if (slots[range] == null) {
+                        slots[range] = context.createTimeSlot(new Interval(blockStarts[range], blockEnds[range] + 1));
+                    }
+                    final ActivityBar bar = context.createActivityBar(value, slots[range]);
+                    if (bar != null) {
+                        slots[range].add(bar);
+                    }
+                    return true;
+                }
+            });
+            for (int i = 0; i < size; i++) {
+                if (slots[i] != null) {
+                    result.add(slots[i]);
+                    slots[i] = null;
+                }
+            }
+        }
+        return result;
     }
 
-    TimeSlot getTimeSlot(Interval interval) {
-        final TimeSlot timeSlot = createTimeSlot(interval);
+    /**
+     * Lays out the time slots that overlap the window. The metrics of a bar depend on the slots of its neighbours, so
+     * the slots are sliced as far as the activities of the window and their neighbours reach, and calculated as far
+     * as the activities of the window reach.
+     */
+    private ScheduleLayout layout(ReadableDuration slotSize, ReadableInterval window) {
+        final long origin = tree.getStart();
+        final long size = slotSize.getMillis();
+        final int count = slotCount(origin, tree.getEnd(), size);
 
-        final IntervalTree.IntervalData<Activity> query = tree.query(interval.getStartMillis(), interval.getEndMillis() - 1);
-        if (query != null) {
-            final Set<Activity> activities = query.getValues();
+        // The slots of the window
+        final int from = window.getStartMillis() <= origin ? 0 : Math.min(count, slotIndex(origin, window.getStartMillis(), size));
+        final int to = window.getEndMillis() <= origin ? 0 : Math.min(count, slotIndex(origin, window.getEndMillis() - 1, size) + 1);
+        if (from >= to || window.toDurationMillis() == 0) {
+            return new ScheduleLayout(slotSize, origin, 0, Collections.<TimeSlot>emptyList(), Collections.<ActivityBar>emptyList());
+        }
+
+        // The slots of the activities of the window, and the slots of their neighbours
+        final int[] calculated = reach(origin, from, to, count, size);
+        final int[] sliced = reach(origin, calculated[0], calculated[1], count, size);
+
+        final LayoutContext context = new LayoutContext();
+        final List<TimeSlot> slots = slice(context, Engine.TREE, origin, sliced[0], sliced[1], size);
+        calculate(between(slots, origin, calculated[0], calculated[1], size));
+
+        final List<TimeSlot> result = between(slots, origin, from, to, size);
+        final Set<ActivityBar> bars = new TreeSet<>();
+        for (TimeSlot slot : result) {
+            bars.addAll(slot.getMembers());
+        }
+        return new ScheduleLayout(slotSize, origin + from * size, to - from, result, bars);
+    }
+
+    /**
+     * Derives the layout of a coarser slot size from the kept layout. A coarse time slot is made of whole kept time
+     * slots, so its members are the members of the kept ones. Each activity is put into the coarse time slots its
+     * bounds fall into, the work is linear in the memberships of the kept layout.
+     * <p/>
+     * If the schedule is shorter than the coarse time slot, the single time slot reaches past the kept ones and is
+     * queried from the tree instead.
+     *
+     * @param state    The kept layout.
+     * @param slotSize The size of a coarse time slot, a multiple of the kept one.
+     * @return The schedule layout.
+     */
+    private ScheduleLayout coarsen(LayoutState state, ReadableDuration slotSize) {
+        final long origin = state.origin;
+        final long size = slotSize.getMillis();
+        final int count = slotCount(origin, tree.getEnd(), size);
+
+        if ((long) count * (size / state.slotSize.getMillis()) > state.count) {
+            final LayoutContext context = new LayoutContext();
+            final TimeSlot slot = getTimeSlot(context, new Interval(origin, origin + size));
+            final List<TimeSlot> slots = slot == null ? Collections.<TimeSlot>emptyList() : Collections.singletonList(slot);
+            calculate(slots);
+            return new ScheduleLayout(slotSize, origin, count, slots, context.activityBarCache.values());
+        }
+
+        final SortedMap<Integer, TimeSlot> slots = new TreeMap<>();
+        final Set<ActivityBar> merged = new HashSet<>();
+        final List<ActivityBar> bars = new ArrayList<>();
+        for (TimeSlot kept : state.slots.values()) {
+            for (ActivityBar keptBar : kept.getMembers()) {
+                final Activity activity = keptBar.activity;
+                final int from = slotIndex(origin, activity.getStartMillis(), size);
+                final int to = Math.min(slotIndex(origin, activity.getEndMillis(), size), count - 1);
+                if (!merged.add(keptBar) || from > to) {
+                    // merged already, or only in the kept time slots past the last coarse one
+                    continue;
+                }
+
+                final ActivityBar bar = new ActivityBar(activity);
+                bars.add(bar);
+                for (int index = from; index <= to; index++) {
+                    TimeSlot slot = slots.get(index);
+                    if (slot == null) {
+                        final long slotStart = origin + index * size;
+                        slot = new TimeSlot(new Interval(slotStart, slotStart + size));
+                        slots.put(index, slot);
+                    }
+                    slot.add(bar);
+                }
+            }
+        }
+
+        calculate(new ArrayList<>(slots.values()));
+
+        return new ScheduleLayout(slotSize, origin, count, slots.values(), bars);
+    }
+
+    /**
+     * @return the time slots with the indexes from the first one up to the last one, exclusive.
+     */
+    private static List<TimeSlot> between(List<TimeSlot> slots, long origin, int from, int to, long slotSize) {
+        final List<TimeSlot> result = new ArrayList<>();
+        for (TimeSlot slot : slots) {
+            final int index = slotIndex(origin, slot.getInterval().getStartMillis(), slotSize);
+            if (index >= from && index < to) {
+                result.add(slot);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first and the last, exclusive, slot indexes of the slots and the activities in them.
+     */
+    private int[] reach(final long origin, int from, int to, final int count, final long slotSize) {
+        final int[] result = {from, to};
+        tree.query(origin + from * slotSize, origin + to * slotSize - 1, new IntervalTree.LongVisitor() {
+            @Override
+            public boolean visit(long start, long end) {
+                result[0] = Math.min(result[0], slotIndex(origin, start, slotSize));
+                result[1] = Math.max(result[1], Math.min(count, slotIndex(origin, end, slotSize) + 1));
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds the slot boundaries no activity crosses and picks the ones that split the slots into ranges of about
+     * the same weight, a slot and an activity weigh one each.
+     *
+     * @param origin   The start of the schedule.
+     * @param count    The number of time slots.
+     * @param slotSize The size of a time slot in milliseconds.
+     * @param ranges   The number of ranges to aim for.
+     * @return The boundaries of the ranges, starting with 0 and ending with the slot count.
+     */
+    private int[] cuts(final long origin, final int count, final long slotSize, int ranges) {
+        // crossings[b] counts the activities that have slots on both sides of the boundary before the slot b,
+        // weights[k] counts the activities that start in the slot k
+        final int[] crossings = new int[count + 1];
+        final int[] weights = new int[count];
+        final int[] activities = new int[1];
+        tree.query(Long.MIN_VALUE, Long.MAX_VALUE, new IntervalTree.LongVisitor() {
+            @Override
+            public boolean visit(long start, long end) {
+                final int first = slotIndex(origin, start, slotSize);
+                final int last = Math.min(slotIndex(origin, end, slotSize), count - 1);
+                if (first < count) {
+                    weights[first]++;
+                    activities[0]++;
+                    if (first < last) {
+                        crossings[first + 1]++;
+                        crossings[last + 1]--;
+                    }
+                }
+                return true;
+            }
+        });
+
+        final long target = Math.max(1, (count + activities[0]) / ranges);
+        final List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        int crossing = 0;
+        long weight = 0;
+        for (int index = 1; index < count; index++) {
+            weight += 1 + weights[index - 1];
+            crossing += crossings[index];
+            if (crossing == 0 && weight >= target) {
+                cuts.add(index);
+                weight = 0;
+            }
+        }
+        cuts.add(count);
+
+        final int[] result = new int[cuts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cuts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Lays out a range of time slots on its own.
+     */
+    private static class LayoutTask extends RecursiveTask<List<TimeSlot>> {
+        private static final long serialVersionUID = 1L;
+
+        private final LayoutContext context = new LayoutContext();
+        private final Schedule schedule;
+        private final Engine engine;
+        private final long origin;
+        private final int from;
+        private final int to;
+        private final long slotSize;
+
+        private LayoutTask(Schedule schedule, Engine engine, long origin, int from, int to, long slotSize) {
+            this.schedule = schedule;
+            this.engine = engine;
+            this.origin = origin;
+            this.from = from;
+            this.to = to;
+            this.slotSize = slotSize;
+        }
+
+        @Override
+        protected List<TimeSlot> compute() {
+            return schedule.layout(context, engine, origin, from, to, slotSize);
+        }
+    }
+
+    /**
+     * Updates the kept layout after the activity has been added or removed. The time slots of the activity are
+     * laid out again, and so are the slots of every activity that shares a slot with them, before or after the
+     * change, and so on until the whole clash group is covered. Nothing outside of the group can change, so the
+     * result is the same as of the full layout. The new slots and bars replace the old ones, the layouts returned
+     * before stay as they were.
+     * <p/>
+     * The layout is dropped if the schedule starts at another instant now, since all the slots move.
+     *
+     * @param changed The added or removed activity.
+     */
+    private void relayout(Activity changed) {
+        final LayoutState state = layoutState;
+        if (state == null) {
+            return;
+        }
+        if (RecurringIndex.isEmpty(tree) || tree.getStart() != state.origin) {
+            layoutState = null;
+            return;
+        }
+
+        final long slotSize = state.slotSize.getMillis();
+        final int oldCount = state.count;
+        final int newCount = slotCount(state.origin, tree.getEnd(), slotSize);
+
+        final LayoutContext context = new LayoutContext();
+        final SortedMap<Integer, TimeSlot> newSlots = new TreeMap<>();
+        final Set<Integer> affectedSlots = new HashSet<>();
+        final Set<Activity> affected = new HashSet<>();
+        final Deque<Integer> queue = new ArrayDeque<>();
+
+        // The slots of the activity and the slots that appear or disappear at the end of the schedule
+        final int first = slotIndex(state.origin, changed.getStartMillis(), slotSize);
+        final int last = Math.min(slotIndex(state.origin, changed.getEndMillis(), slotSize), Math.max(oldCount, newCount) - 1);
+        for (int index = first; index <= last; index++) {
+            if (affectedSlots.add(index)) {
+                queue.add(index);
+            }
+        }
+        for (int index = Math.min(oldCount, newCount); index < Math.max(oldCount, newCount); index++) {
+            if (affectedSlots.add(index)) {
+                queue.add(index);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            final int index = queue.poll();
 
-            for (Activity activity : activities) {
-                timeSlot.add(createActivityBar(activity));
+            final List<Activity> members = new ArrayList<>();
+            final TimeSlot oldSlot = state.slots.get(index);
+            if (oldSlot != null) {
+                for (ActivityBar bar : oldSlot.getMembers()) {
+                    members.add(bar.activity);
+                }
             }
+            if (index < newCount) {
+                final long slotStart = state.origin + index * slotSize;
+                final TimeSlot slot = getTimeSlot(context, new Interval(slotStart, slotStart + slotSize));
+                if (slot != null) {
+                    newSlots.put(index, slot);
+                    for (ActivityBar bar : slot.getMembers()) {
+                        members.add(bar.activity);
+                    }
+                }
+            }
+
+            for (Activity activity : members) {
+                if (!affected.add(activity)) {
+                    continue;
+                }
+                // Other activities keep their slots, so the new ones cover the old ones
+                final int from = slotIndex(state.origin, activity.getStartMillis(), slotSize);
+                final int to = Math.min(slotIndex(state.origin, activity.getEndMillis(), slotSize), newCount - 1);
+                for (int slotIndex = from; slotIndex <= to; slotIndex++) {
+                    if (affectedSlots.add(slotIndex)) {
+                        queue.add(slotIndex);
+                    }
+                }
+            }
+        }
+
+        calculate(new ArrayList<>(newSlots.values()));
+
+        for (int index : affectedSlots) {
+            state.slots.remove(index);
+        }
+        state.slots.putAll(newSlots);
+        state.slots.tailMap(newCount).clear();
+        state.count = newCount;
+        for (Activity activity : affected) {
+            state.bars.remove(activity);
+        }
+        state.bars.putAll(context.activityBarCache);
+    }
+
+    /**
+     * @return the number of time slots the layout has for the schedule span, the last partial slot is dropped.
+     */
+    static int slotCount(long start, long end, long slotSize) {
+        return (int) Math.max(1, (end - start) / slotSize);
+    }
+
+    /**
+     * @return the index of the time slot that contains the instant.
+     */
+    static int slotIndex(long start, long instant, long slotSize) {
+        return (int) ((instant - start) / slotSize);
+    }
+
+    /**
+     * @return the time slot of the interval with its members, or null if no activity touches the interval.
+     */
+    TimeSlot getTimeSlot(LayoutContext context, Interval interval) {
+        final IntervalTree.IntervalData<Activity> query = tree.query(interval.getStartMillis(), interval.getEndMillis() - 1);
+        if (query == null) {
+            return null;
+        }
+
+        final TimeSlot timeSlot = context.createTimeSlot(interval);
+        for (Activity activity : query.getValues()) {
+            timeSlot.add(context.createActivityBar(activity));
         }
         return timeSlot;
     }
 
     /**
-     * Create the
+     * Slices the activities into time slots in one pass over the timeline. The activities are sorted by start once,
+     * every slot admits the activities that have started before its end and evicts the ones that have ended before its
+     * start. The membership rule is the same as of the tree range query: both bounds of an activity are inclusive.
+     * The runs of empty slots are skipped.
      *
-     * @param interval
-     * @return
+     * @param context  The layout run.
+     * @param origin   The start of the schedule.
+     * @param from     The index of the first time slot.
+     * @param to       The index after the last time slot.
+     * @param slotSize The size of a time slot in milliseconds.
+     * @return The occupied time slots.
      */
-    static TimeSlot createTimeSlot(Interval interval) {
-        final TimeSlot existingSlot = timeSlotCache.get(interval);
+    List<TimeSlot> sweep(LayoutContext context, long origin, int from, int to, long slotSize) {
+        final List<Activity> activities = getActivities(origin + from * slotSize, origin + to * slotSize - 1);
+        final List<Activity> sorted = Ordering.natural().sortedCopy(activities);
+        final List<ActivityBar> active = new ArrayList<>();
+        final List<TimeSlot> result = new ArrayList<>();
 
-        if (existingSlot == null) {
-            final TimeSlot newSlot = new TimeSlot(interval);
-            timeSlotCache.put(interval, newSlot);
+        int next = 0;
+        Activity last = null;
+        for (int index = from; index < to; index++) {
+            final long slotStart = origin + index * slotSize;
+            final long slotEnd = slotStart + slotSize - 1;
 
-            return newSlot;
+            // Admit the started activities. Activities with the same interval are the same for the tree, it keeps
+            // the first one of them.
+            while (next < sorted.size() && sorted.get(next).getStartMillis() <= slotEnd) {
+                final Activity activity = sorted.get(next++);
+                if (last == null || last.compareTo(activity) != 0) {
+                    active.add(context.createActivityBar(activity));
+                    last = activity;
+                }
+            }
+
+            int kept = 0;
+            for (ActivityBar bar : active) {
+                // Evict the finished activities
+                if (bar.activity.getEndMillis() >= slotStart) {
+                    active.set(kept++, bar);
+                }
+            }
+            active.subList(kept, active.size()).clear();
+
+            if (active.isEmpty()) {
+                // Skip the empty slots up to the next activity
+                if (next == sorted.size()) {
+                    break;
+                }
+                index = Math.max(index, slotIndex(origin, sorted.get(next).getStartMillis(), slotSize) - 1);
+                continue;
+            }
+
+            final TimeSlot timeSlot = context.createTimeSlot(new Interval(slotStart, slotStart + slotSize));
+            for (ActivityBar bar : active) {
+                timeSlot.add(bar);
+            }
+            result.add(timeSlot);
         }
 
-        return existingSlot;
+        return result;
     }
 
-    static ActivityBar createActivityBar(Activity activity) {
-        final ActivityBar existingActivityBar = activityBarCache.get(activity);
+    /**
+     * The layout kept by the schedule between the changes.
+     */
+    private static class LayoutState {
+        private final ReadableDuration slotSize;
+        private final long origin;
+        private int count;
+        private final SortedMap<Integer, TimeSlot> slots = new TreeMap<>(); // the occupied time slots by index
+        private final Map<Activity, ActivityBar> bars;
+
+        private LayoutState(ReadableDuration slotSize, long origin, int count, List<TimeSlot> slots, Map<Activity, ActivityBar> bars) {
+            this.slotSize = slotSize;
+            this.origin = origin;
+            this.count = count;
+            for (TimeSlot slot : slots) {
+                this.slots.put(slotIndex(origin, slot.getInterval().getStartMillis(), slotSize.getMillis()), slot);
+            }
+            this.bars = bars;
+        }
+    }
+
+    /**
+     * The indexes of a single layout run. Each {@link #getSlotsBy(ReadableDuration, Engine)} call has its own
+     * context, so it is never shared between threads.
+     */
+    static class LayoutContext {
+        /**
+         * The time slots index.
+         */
+        private final Map<Interval, TimeSlot> timeSlotCache = new HashMap<>();
+
+        /**
+         * The activity bars index.
+         */
+        private final Map<Activity, ActivityBar> activityBarCache = new HashMap<>();
+
+        /**
+         * Returns the time slot for the interval, creating it on the first request.
+         *
+         * @param interval The interval of the time slot.
+         * @return The time slot.
+         */
+        TimeSlot createTimeSlot(Interval interval) {
+            final TimeSlot existingSlot = timeSlotCache.get(interval);
+
+            if (existingSlot == null) {
+                final TimeSlot newSlot = new TimeSlot(interval);
+                timeSlotCache.put(interval, newSlot);
+
+                return newSlot;
+            }
+
+            return existingSlot;
+        }
+
+        /**
+         * Returns the activity bar for the activity, creating it on the first request.
+         *
+         * @param activity The activity of the bar.
+         * @return The activity bar.
+         */
+        ActivityBar createActivityBar(Activity activity) {
+            final ActivityBar existingActivityBar = activityBarCache.get(activity);
+
+            if (existingActivityBar == null) {
+                final ActivityBar newActivityBar = new ActivityBar(activity);
+                activityBarCache.put(activity, newActivityBar);
+
+                return newActivityBar;
+            }
+
+            return existingActivityBar;
+        }
+
+        /**
+         * Returns the activity bar for the activity like {@link #createActivityBar(Activity)}, unless the slot has the
+         * bar of another activity with the same interval already. The tree reports such activities one after another
+         * in the same order for every slot, the first one of them is kept like by {@link IntervalTree#query(long, long)}.
+         *
+         * @param activity The activity of the bar.
+         * @param slot     The time slot the bar goes into.
+         * @return The activity bar, or null if the slot has the bar of a same interval activity.
+         */
+        ActivityBar createActivityBar(Activity activity, TimeSlot slot) {
+            final ActivityBar existingActivityBar = activityBarCache.get(activity);
+            if (existingActivityBar != null) {
+                return existingActivityBar;
+            }
 
-        if (existingActivityBar == null) {
             final ActivityBar newActivityBar = new ActivityBar(activity);
+            if (slot.members.contains(newActivityBar)) {
+                return null;
+            }
             activityBarCache.put(activity, newActivityBar);
 
             return newActivityBar;
         }
 
-        return existingActivityBar;
+        Iterable<ActivityBar> getActivityBars() {
+            return activityBarCache.values();
+        }
     }
 
     /**
@@ -136,6 +1344,9 @@ public class Schedule {
      * @param list The time slot list.
      */
     static void calculate(List<TimeSlot> list) {
+        final Instrumentation.Listener listener = Instrumentation.getListener();
+        final long started = listener == null ? 0 : System.nanoTime();
+
         for (TimeSlot slot : list) {
             int denominator = 1;
             for (ActivityBar bar : slot.getMembers()) {
@@ -153,21 +1364,59 @@ public class Schedule {
                 bar.setMetrics(nominator, denominator);
             }
         }
+
+        if (listener != null) {
+            listener.calculated(list.size(), System.nanoTime() - started);
+        }
     }
 
     /**
-     * This class describes the schedule layout.
+     * This class describes the schedule layout. Only the occupied time slots are stored, the runs of empty slots
+     * between them are implied by the indexes of the occupied ones. An empty time slot is created when it is accessed,
+     * so the same index gives a fresh object every time. {@link TimeSlot} has the identity of an object, the empty
+     * slots must not be compared with == or equals, compare their intervals instead. The access by index or by
+     * instant takes O(log n).
+     * <p/>
+     * The time slots and the activity bars are read-only and may be shared with the layout kept by the schedule and
+     * with the layouts returned to other callers.
      */
-    public class ScheduleLayout {
-        private ReadableDuration timeSlotSize;
-        private List<TimeSlot> timeSlots;
-        private List<ActivityBar> activityBars;
+    public static class ScheduleLayout {
+        private final ReadableDuration timeSlotSize;
+        private final long origin;
+        private final int count;
+        private final int[] indexes; // the indexes of the occupied time slots, ascending
+        private final TimeSlot[] occupied;
+        private final List<ActivityBar> activityBars;
 
+        /**
+         * Creates the layout from the consecutive time slots.
+         */
         public ScheduleLayout(ReadableDuration timeSlotSize,
                               Iterable<TimeSlot> timeSlots,
                               Iterable<ActivityBar> activityBars) {
+            this(timeSlotSize, Iterables.isEmpty(timeSlots) ? 0 : Iterables.get(timeSlots, 0).getInterval().getStartMillis(),
+                    Iterables.size(timeSlots), Iterables.filter(timeSlots, isOccupied), activityBars);
+        }
+
+        /**
+         * Creates the layout from the occupied time slots.
+         *
+         * @param timeSlotSize The size of a time slot.
+         * @param origin       The start of the first time slot.
+         * @param count        The number of time slots.
+         * @param occupied     The occupied time slots ordered by start.
+         * @param activityBars The activity bars.
+         */
+        ScheduleLayout(ReadableDuration timeSlotSize, long origin, int count,
+                       Iterable<TimeSlot> occupied, Iterable<ActivityBar> activityBars) {
             this.timeSlotSize = timeSlotSize;
-            this.timeSlots = ImmutableList.copyOf(timeSlots);
+            this.origin = origin;
+            this.count = count;
+            this.occupied = Iterables.toArray(occupied, TimeSlot.class);
+            this.indexes = new int[this.occupied.length];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = slotIndex(origin, this.occupied[i].getInterval().getStartMillis(), timeSlotSize.getMillis());
+            }
             this.activityBars = ImmutableList.copyOf(activityBars);
         }
 
@@ -175,13 +1424,65 @@ public class Schedule {
             return timeSlotSize;
         }
 
+        /**
+         * @return all the time slots, the empty ones are created on access.
+         */
         public List<TimeSlot> getTimeSlots() {
-            return timeSlots;
+            return new TimeSlotList();
+        }
+
+        /**
+         * @return the occupied time slots in order.
+         */
+        public List<TimeSlot> getOccupiedTimeSlots() {
+            return Collections.unmodifiableList(Arrays.asList(occupied));
+        }
+
+        /**
+         * @param index The index of the time slot.
+         * @return The time slot.
+         * @throws IndexOutOfBoundsException if the layout has no such time slot.
+         */
+        public TimeSlot getTimeSlot(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, count));
+            }
+
+            final int position = Arrays.binarySearch(indexes, index);
+            if (position >= 0) {
+                return occupied[position];
+            }
+            final long slotStart = origin + index * timeSlotSize.getMillis();
+            return new TimeSlot(new Interval(slotStart, slotStart + timeSlotSize.getMillis()));
+        }
+
+        /**
+         * @param instant The instant.
+         * @return The time slot that contains the instant, or null if it is out of the layout.
+         */
+        public TimeSlot getTimeSlot(ReadableInstant instant) {
+            final long millis = instant.getMillis();
+            if (millis < origin || millis >= origin + count * timeSlotSize.getMillis()) {
+                return null;
+            }
+            return getTimeSlot(slotIndex(origin, millis, timeSlotSize.getMillis()));
         }
 
         public List<ActivityBar> getActivityBars() {
             return activityBars;
         }
+
+        private class TimeSlotList extends AbstractList<TimeSlot> implements RandomAccess {
+            @Override
+            public TimeSlot get(int index) {
+                return getTimeSlot(index);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        }
     }
 
     /**
@@ -198,7 +1499,7 @@ public class Schedule {
             this.activity = activity;
         }
 
-        public boolean add(TimeSlot slot) {
+        boolean add(TimeSlot slot) {
             // drop the number
             maxNumberOfNeighbors = null;
             return slots.add(slot);
@@ -209,7 +1510,7 @@ public class Schedule {
                 maxNumberOfNeighbors = 0;  // alone
 
                 for (TimeSlot slot : slots) {
-                    final int size = slot.getMembers().size();
+                    final int size = slot.members.size();
                     if (size > maxNumberOfNeighbors) {
                         maxNumberOfNeighbors = size;
                     }
@@ -218,7 +1519,7 @@ public class Schedule {
             return maxNumberOfNeighbors;
         }
 
-        public void setMetrics(int nominator, int denominator) {
+        void setMetrics(int nominator, int denominator) {
             if (nominator < this.nominator) {
                 this.nominator = nominator;
             }
@@ -239,6 +1540,10 @@ public class Schedule {
             return activity.getName();
         }
 
+        Activity getActivity() {
+            return activity;
+        }
+
         @Override
         public String toString() {
             return String.format("'%s': %d/%d", activity.getName(), nominator, denominator);
@@ -251,7 +1556,8 @@ public class Schedule {
     }
 
     /**
-     * This class represents the time slot on the schedule.
+     * This class represents the time slot on the schedule. The members are only added while the layout is built, the
+     * slots of a layout handed out are read-only.
      */
     public static class TimeSlot {
         private final Interval interval;
@@ -261,13 +1567,13 @@ public class Schedule {
             this.interval = interval;
         }
 
-        public void add(ActivityBar activityBar) {
+        void add(ActivityBar activityBar) {
             activityBar.add(this);
             members.add(activityBar);
         }
 
         public Set<ActivityBar> getMembers() {
-            return members;
+            return Collections.unmodifiableSet(members);
         }
 
         public Interval getInterval() {
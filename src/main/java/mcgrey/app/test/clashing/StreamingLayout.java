@@ -0,0 +1,209 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Interval;
+import org.joda.time.ReadableDuration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * This class lays out a stream of activities ordered by start into the same time slots and activity bars as
+ * {@link Schedule#getSlotsBy(ReadableDuration)}, without holding the whole schedule in memory.
+ * <p/>
+ * A time slot is emitted as soon as it is built, its members can't change after that. The metrics of an activity bar
+ * depend on the sizes of all the slots of its neighbours, so a slot is calculated once every member has passed its
+ * last slot and a bar is emitted once all its slots are calculated. Only the open activities and the slots they
+ * cover are held, the memory doesn't grow with the number of activities.
+ * <p/>
+ * The layout is not thread safe.
+ */
+public class StreamingLayout {
+
+    /**
+     * Receives the layout as it is computed.
+     */
+    public interface Listener {
+        /**
+         * Called for every time slot in order. The metrics of its bars may not be final yet.
+         *
+         * @param slot The time slot.
+         */
+        void timeSlot(Schedule.TimeSlot slot);
+
+        /**
+         * Called for every activity bar once its metrics are final.
+         *
+         * @param bar The activity bar.
+         */
+        void activityBar(Schedule.ActivityBar bar);
+    }
+
+    private final long slotSize;
+    private final Listener listener;
+
+    private boolean started = false;
+    private boolean finished = false;
+    private long origin;
+    private long end;
+    private long lastStart;
+    private int next = 0; // the index of the next slot to build
+
+    private final List<OpenBar> active = new ArrayList<>();
+    private final Deque<PendingSlot> pending = new ArrayDeque<>();
+    private final SortedSet<Activity> sameStart = new TreeSet<>();
+
+    /**
+     * Creates the layout.
+     *
+     * @param slotSize The size of a time slot.
+     * @param listener The listener to emit the time slots and activity bars to.
+     */
+    public StreamingLayout(ReadableDuration slotSize, Listener listener) {
+        this.slotSize = slotSize.getMillis();
+        this.listener = listener;
+    }
+
+    /**
+     * Lays out all the activities.
+     *
+     * @param activities The activities ordered by start.
+     * @param slotSize   The size of a time slot.
+     * @param listener   The listener to emit the time slots and activity bars to.
+     */
+    public static void layout(Iterator<Activity> activities, ReadableDuration slotSize, Listener listener) {
+        final StreamingLayout layout = new StreamingLayout(slotSize, listener);
+        while (activities.hasNext()) {
+            layout.add(activities.next());
+        }
+        layout.finish();
+    }
+
+    /**
+     * Adds the next activity. It emits the slots that end before the activity starts.
+     *
+     * @param activity The activity, it must not start before the previous one.
+     */
+    public void add(Activity activity) {
+        if (finished) {
+            throw new IllegalStateException("The layout is finished.");
+        }
+
+        final long start = activity.getStartMillis();
+        if (!started) {
+            started = true;
+            origin = start;
+            end = activity.getEndMillis();
+        } else if (start < lastStart) {
+            throw new IllegalArgumentException(String.format("The activity %s starts before %d.", activity, lastStart));
+        } else if (start > lastStart) {
+            sameStart.clear();
+        }
+        lastStart = start;
+
+        // Activities with the same interval are the same for the tree, it keeps the first one of them
+        if (!sameStart.add(activity)) {
+            return;
+        }
+
+        end = Math.max(end, activity.getEndMillis());
+        while (origin + (next + 1) * slotSize - 1 < start) {
+            build();
+        }
+        active.add(new OpenBar(new Schedule.ActivityBar(activity), Schedule.slotIndex(origin, activity.getEndMillis(), slotSize)));
+    }
+
+    /**
+     * Emits the rest of the slots and bars. The last partial slot is dropped like in the schedule.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        if (started) {
+            final int count = Schedule.slotCount(origin, end, slotSize);
+            while (next < count) {
+                build();
+            }
+            // the rest of the activities have no more slots
+            next = Integer.MAX_VALUE;
+            calculate();
+            active.clear();
+        }
+    }
+
+    /**
+     * @return the number of activities and slots held by the layout.
+     */
+    int held() {
+        return active.size() + pending.size();
+    }
+
+    private void build() {
+        final long slotStart = origin + next * slotSize;
+        final Schedule.TimeSlot slot = new Schedule.TimeSlot(new Interval(slotStart, slotStart + slotSize));
+        final List<OpenBar> members = new ArrayList<>();
+
+        int ready = -1;
+        int kept = 0;
+        for (OpenBar bar : active) {
+            // Evict the finished activities
+            if (bar.last >= next) {
+                active.set(kept++, bar);
+                slot.add(bar.bar);
+                bar.uncalculated++;
+                members.add(bar);
+                ready = Math.max(ready, bar.last);
+            }
+        }
+        active.subList(kept, active.size()).clear();
+        next++;
+
+        listener.timeSlot(slot);
+        pending.add(new PendingSlot(slot, members, ready));
+        calculate();
+    }
+
+    private void calculate() {
+        while (!pending.isEmpty() && pending.peek().ready < next) {
+            final PendingSlot slot = pending.poll();
+            Schedule.calculate(Collections.singletonList(slot.slot));
+
+            for (OpenBar bar : slot.members) {
+                if (--bar.uncalculated == 0 && bar.last < next) {
+                    listener.activityBar(bar.bar);
+                }
+            }
+        }
+    }
+
+    private static class OpenBar {
+        private final Schedule.ActivityBar bar;
+        private final int last; // the index of the last slot of the activity
+        private int uncalculated = 0; // the number of the built slots of the activity that are not calculated yet
+
+        private OpenBar(Schedule.ActivityBar bar, int last) {
+            this.bar = bar;
+            this.last = last;
+        }
+    }
+
+    private static class PendingSlot {
+        private final Schedule.TimeSlot slot;
+        private final List<OpenBar> members;
+        private final int ready; // the slot can be calculated once this slot is built
+
+        private PendingSlot(Schedule.TimeSlot slot, List<OpenBar> members, int ready) {
+            this.slot = slot;
+            this.members = members;
+            this.ready = ready;
+        }
+    }
+}
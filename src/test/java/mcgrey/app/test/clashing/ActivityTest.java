@@ -1,7 +1,9 @@
 package mcgrey.app.test.clashing;
 
 import junit.framework.Assert;
+import org.joda.time.Duration;
 import org.joda.time.Instant;
+import org.joda.time.Interval;
 import org.junit.Test;
 
 import java.util.List;
@@ -47,4 +49,55 @@ public class ActivityTest {
         Assert.assertSame(meeting, activityList.get(2));
         Assert.assertSame(dinner, activityList.get(3));
     }
+
+    @Test
+    public void testEquals() throws Exception {
+        final Activity lunch = new Activity(new Instant(0), new Instant(99), "Lunch");
+        final Activity sameLunch = new Activity(0, 99, new String("Lunch"));
+        final Activity otherLunch = new Activity(new Instant(0), new Duration(99), "Lunch");
+
+        Assert.assertEquals(lunch, sameLunch);
+        Assert.assertEquals(lunch.hashCode(), sameLunch.hashCode());
+        Assert.assertEquals(lunch, otherLunch);
+        Assert.assertEquals(lunch, new Activity(new Interval(0, 99), "Lunch"));
+
+        Assert.assertFalse(lunch.equals(new Activity(0, 99, "Tea")));
+        Assert.assertFalse(lunch.equals(new Activity(1, 99, "Lunch")));
+        Assert.assertFalse(lunch.equals(new Activity(0, 98, "Lunch")));
+        Assert.assertFalse(lunch.equals(null));
+    }
+
+    @Test
+    public void testName() throws Exception {
+        final Activity lunch = new Activity(0, 99, "Lunch");
+        final Activity otherLunch = new Activity(100, 199, new String("Lunch"));
+
+        Assert.assertEquals("Lunch", otherLunch.getName());
+        Assert.assertSame("The names must be interned.", lunch.getName(), otherLunch.getName());
+        Assert.assertNull(new Activity(0, 99, null).getName());
+        Assert.assertEquals(new Activity(0, 99, null), new Activity(0, 99, null));
+    }
+
+    @Test
+    public void testNameShared() throws Exception {
+        final Activity standup = new Activity(0, 99, new String("Standup"));
+        final Activity otherStandup = new Activity(1000, 1099, new String("Standup"));
+
+        Assert.assertSame("Equal names must share one instance.", standup.getName(), otherStandup.getName());
+        Assert.assertSame(standup.getName(), standup.shift(500).getName());
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        final Activity lunch = new Activity(new Instant(10), new Instant(99), "Lunch");
+
+        Assert.assertEquals(10, lunch.getStartMillis());
+        Assert.assertEquals(99, lunch.getEndMillis());
+        Assert.assertEquals(new Interval(10, 99), lunch.getInterval());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEndBeforeStart() throws Exception {
+        new Activity(99, 10, "Lunch");
+    }
 }
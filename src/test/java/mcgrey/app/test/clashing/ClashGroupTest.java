@@ -0,0 +1,151 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.joda.time.Instant;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class ClashGroupTest {
+    @Test
+    public void testGroup() throws Exception {
+        final Activity breakfast = new Activity(new Instant(-10), new Instant(9), "Breakfast");
+        final Activity lunch = new Activity(new Instant(0), new Instant(99), "Lunch");
+        final Activity meeting = new Activity(new Instant(99), new Instant(199), "Meeting");
+        final Activity dinner = new Activity(new Instant(300), new Instant(400), "Dinner");
+        final Activity tea = new Activity(new Instant(401), new Instant(410), "Tea");
+
+        final List<ClashGroup> groups = Lists.newArrayList(
+                ClashGroup.group(Lists.newArrayList(dinner, tea, meeting, lunch, breakfast)));
+
+        Assert.assertEquals(3, groups.size());
+        Assert.assertEquals(Lists.newArrayList(breakfast, lunch, meeting), groups.get(0).getActivities());
+        Assert.assertEquals(-10, groups.get(0).getSpan().getStartMillis());
+        Assert.assertEquals(199, groups.get(0).getSpan().getEndMillis());
+        Assert.assertEquals(Lists.newArrayList(dinner), groups.get(1).getActivities());
+        Assert.assertEquals(Lists.newArrayList(tea), groups.get(2).getActivities());
+    }
+
+    @Test
+    public void testGroupLazily() throws Exception {
+        // An endless stream of pairs of clashing activities
+        final Iterator<Activity> activities = new Iterator<Activity>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Activity next() {
+                final long start = next++ * 10;
+                return new Activity(new Instant(start), new Instant(start + (next % 2 == 1 ? 10 : 5)), "Activity " + next);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final List<ClashGroup> groups = Lists.newArrayList(Iterators.limit(ClashGroup.group(activities), 3));
+        Assert.assertEquals(3, groups.size());
+        for (ClashGroup group : groups) {
+            Assert.assertEquals(2, group.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupUnsorted() throws Exception {
+        final Activity lunch = new Activity(new Instant(0), new Instant(99), "Lunch");
+        final Activity breakfast = new Activity(new Instant(-10), new Instant(9), "Breakfast");
+
+        Iterators.size(ClashGroup.group(Lists.newArrayList(lunch, breakfast).iterator()));
+    }
+
+    @Test
+    public void testScheduleClashGroups() throws Exception {
+        final Random random = new Random(19);
+        final List<Activity> activities = ScheduleTest.randomActivities(random, 300, 100000, 500);
+        final Schedule schedule = new Schedule(activities);
+
+        // Two activities are in the same group if there is a chain of clashing activities between them
+        final List<List<Activity>> expected = new ArrayList<>();
+        for (Activity activity : activities) {
+            final List<Activity> merged = Lists.newArrayList(activity);
+            for (Iterator<List<Activity>> iterator = expected.iterator(); iterator.hasNext(); ) {
+                final List<Activity> group = iterator.next();
+                for (Activity member : group) {
+                    if (member.getInterval().getStartMillis() <= activity.getInterval().getEndMillis()
+                            && activity.getInterval().getStartMillis() <= member.getInterval().getEndMillis()) {
+                        merged.addAll(group);
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+            expected.add(merged);
+        }
+
+        int count = 0;
+        int size = 0;
+        for (ClashGroup group : schedule.getClashGroups()) {
+            count++;
+            size += group.size();
+            for (List<Activity> expectedGroup : expected) {
+                if (expectedGroup.contains(group.getActivities().get(0))) {
+                    Assert.assertEquals(expectedGroup.size(), group.size());
+                    Assert.assertTrue(expectedGroup.containsAll(group.getActivities()));
+                }
+            }
+        }
+        Assert.assertEquals(expected.size(), count);
+        Assert.assertEquals(activities.size(), size);
+    }
+
+    @Test
+    public void testScheduleClashGroupsStreamed() throws Exception {
+        final Random random = new Random(29);
+        // more activities than a window, a few of them long
+        final List<Activity> activities = ScheduleTest.randomActivities(random, 20000, 10000000, 500);
+        for (int i = 0; i < 20; i++) {
+            final long start = random.nextInt(10000000);
+            activities.add(new Activity(new Instant(start), new Instant(start + random.nextInt(1000000)), "Long " + i));
+        }
+        final Schedule schedule = new Schedule(activities);
+        assertSameGroups(ClashGroup.group(activities), schedule.getClashGroups());
+
+        final Activity added = new Activity(new Instant(5000000), new Instant(5000100), "Added");
+        schedule.add(added);
+        activities.add(added);
+        assertSameGroups(ClashGroup.group(activities), schedule.getClashGroups());
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testScheduleClashGroupsChanged() throws Exception {
+        final List<Activity> activities = ScheduleTest.randomActivities(new Random(31), 5000, 10000000, 500);
+        final Schedule schedule = new Schedule(activities);
+        final Iterator<ClashGroup> groups = schedule.getClashGroups().iterator();
+        groups.next();
+        schedule.remove(activities.get(0));
+        Iterators.size(groups);
+    }
+
+    private static void assertSameGroups(Iterable<ClashGroup> expected, Iterable<ClashGroup> actual) {
+        final Iterator<ClashGroup> groups = actual.iterator();
+        for (ClashGroup group : expected) {
+            Assert.assertTrue(groups.hasNext());
+            final ClashGroup next = groups.next();
+            Assert.assertEquals(group.getSpan(), next.getSpan());
+            Assert.assertEquals(group.getActivities(), next.getActivities());
+        }
+        Assert.assertFalse(groups.hasNext());
+    }
+}
@@ -0,0 +1,88 @@
+package mcgrey.app.test.clashing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class ColumnarIntervalIndexTest {
+    @Test
+    public void testQuery() throws Exception {
+        List<IntervalTree.IntervalData<String>> intervals = new ArrayList<>();
+        intervals.add(new IntervalTree.IntervalData<>(0, 4, "One"));
+        intervals.add(new IntervalTree.IntervalData<>(2, 6, "Two"));
+        intervals.add(new IntervalTree.IntervalData<>(6, 10, "Three"));
+        intervals.add(new IntervalTree.IntervalData<>(-100, 100, "Four"));
+        intervals.add(new IntervalTree.IntervalData<>(100, 120, "Five"));
+
+        ColumnarIntervalIndex<String> index = new ColumnarIntervalIndex<>(intervals);
+        Assert.assertEquals(5, index.size());
+        Assert.assertEquals(-100, index.getStart());
+        Assert.assertEquals(120, index.getEnd());
+
+        final Set<String> values = index.query(2, 5).getValues();
+        Assert.assertArrayEquals(new String[]{"Four", "One", "Two"}, values.toArray(new String[values.size()]));
+        Assert.assertNull(index.query(121));
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        final ColumnarIntervalIndex<String> index = new ColumnarIntervalIndex<>(
+                new long[]{30, 10, 20}, new long[]{40, 15, 35}, new int[]{0, 1, 0}, Arrays.asList("Busy", "Free"));
+
+        final List<String> visited = new ArrayList<>();
+        index.query(14, 25, new IntervalTree.Visitor<String>() {
+            @Override
+            public boolean visit(long start, long end, String value) {
+                return visited.add(start + "->" + end + " " + value);
+            }
+        });
+        Assert.assertEquals(Arrays.asList("10->15 Free", "20->35 Busy"), visited);
+    }
+
+    @Test
+    public void testSameQueriesAsIntervalTree() throws Exception {
+        final Random random = new Random(13);
+        for (int size : new int[]{0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 100, 1000, 4097, 20000}) {
+            final List<IntervalTree.IntervalData<Integer>> intervals = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                final long start = random.nextInt(100000);
+                final long length = random.nextInt(10) == 0 ? random.nextInt(50000) : random.nextInt(1000);
+                intervals.add(new IntervalTree.IntervalData<>(start, start + length, i));
+            }
+            final ColumnarIntervalIndex<Integer> index = new ColumnarIntervalIndex<>(intervals);
+            Assert.assertEquals(size, index.size());
+
+            for (int i = 0; i < 300; i++) {
+                final long from = random.nextInt(110000) - 5000;
+                final long to = from + (i % 2 == 0 ? 0 : random.nextInt(3000));
+
+                final Set<Integer> expected = new TreeSet<>();
+                for (IntervalTree.IntervalData<Integer> data : intervals) {
+                    if (data.getStart() <= to && data.getEnd() >= from)
+                        expected.addAll(data.getValues());
+                }
+
+                final Set<Integer> visited = new TreeSet<>();
+                Assert.assertTrue(index.query(from, to, new IntervalTree.Visitor<Integer>() {
+                    @Override
+                    public boolean visit(long start, long end, Integer value) {
+                        return visited.add(value);
+                    }
+                }));
+                Assert.assertEquals(expected, visited);
+                Assert.assertEquals(expected, values(index.query(from, to)));
+            }
+        }
+    }
+
+    private static <O> Set<O> values(IntervalTree.IntervalData<O> data) {
+        return data == null ? Collections.<O>emptySet() : data.getValues();
+    }
+}
@@ -0,0 +1,144 @@
+package mcgrey.app.test.clashing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class DynamicIntervalTreeTest {
+    @Test
+    public void testQuery() throws Exception {
+        DynamicIntervalTree<String> tree = new DynamicIntervalTree<>();
+        tree.insert(new IntervalTree.IntervalData<>(0, 4, "One"));
+        tree.insert(new IntervalTree.IntervalData<>(2, 6, "Two"));
+        tree.insert(new IntervalTree.IntervalData<>(6, 10, "Three"));
+        tree.insert(new IntervalTree.IntervalData<>(-100, 100, "Four"));
+        tree.insert(new IntervalTree.IntervalData<>(100, 120, "Five"));
+
+        Assert.assertEquals(-100, tree.getStart());
+        Assert.assertEquals(120, tree.getEnd());
+
+        final Set<String> values = tree.query(2, 5).getValues();
+        Assert.assertArrayEquals(new String[]{"Four", "One", "Two"}, values.toArray(new String[values.size()]));
+
+        Assert.assertTrue(tree.remove(new IntervalTree.IntervalData<>(-100, 100, "Four")));
+        Assert.assertFalse(tree.remove(new IntervalTree.IntervalData<>(-100, 100, "Four")));
+        Assert.assertFalse(tree.remove(new IntervalTree.IntervalData<>(100, 120, "Four")));
+        Assert.assertEquals(0, tree.getStart());
+        Assert.assertEquals(4, tree.size());
+        Assert.assertNull(tree.query(50));
+    }
+
+    @Test
+    public void testInsertAndRemove() throws Exception {
+        final Random random = new Random(3);
+        final DynamicIntervalTree<Integer> tree = new DynamicIntervalTree<>();
+        final List<IntervalTree.IntervalData<Integer>> live = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            if (live.isEmpty() || random.nextInt(3) > 0) {
+                final long start = random.nextInt(100000);
+                final IntervalTree.IntervalData<Integer> data =
+                        new IntervalTree.IntervalData<>(start, start + random.nextInt(2000), i);
+                tree.insert(data);
+                live.add(data);
+            } else {
+                final IntervalTree.IntervalData<Integer> data = live.remove(random.nextInt(live.size()));
+                Assert.assertTrue(tree.remove(data));
+            }
+
+            if (i % 500 == 0) {
+                assertSameQueries(random, live, tree);
+            }
+        }
+
+        Assert.assertEquals(live.size(), tree.size());
+        // AVL trees are at most 1.44 log2(n) high
+        Assert.assertTrue(tree.height() <= 1.45 * Math.log(tree.size() + 2) / Math.log(2));
+        assertSameQueries(random, live, tree);
+
+        final DynamicIntervalTree<Integer> loaded = new DynamicIntervalTree<>(live);
+        Assert.assertEquals(live.size(), loaded.size());
+        assertSameQueries(random, live, loaded);
+    }
+
+    @Test
+    public void testSameBounds() throws Exception {
+        final DynamicIntervalTree<Integer> tree = new DynamicIntervalTree<>();
+        for (int i = 0; i < 10000; i++) {
+            tree.insert(new IntervalTree.IntervalData<>(900, 1000, i % 5000));
+        }
+        Assert.assertEquals(10000, tree.size());
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(tree.remove(new IntervalTree.IntervalData<>(900, 1000, i)));
+        }
+        Assert.assertFalse(tree.remove(new IntervalTree.IntervalData<>(900, 1000, 5000)));
+        Assert.assertEquals(5000, tree.size());
+
+        final int[] visited = new int[1];
+        tree.query(950, new IntervalTree.Visitor<Integer>() {
+            @Override
+            public boolean visit(long start, long end, Integer value) {
+                visited[0]++;
+                return true;
+            }
+        });
+        Assert.assertEquals(5000, visited[0]);
+        Assert.assertEquals(5000, tree.query(950).getValues().size());
+
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(tree.remove(new IntervalTree.IntervalData<>(900, 1000, i)));
+        }
+        Assert.assertTrue(tree.isEmpty());
+        Assert.assertNull(tree.query(950));
+    }
+
+    private static void assertSameQueries(Random random, List<IntervalTree.IntervalData<Integer>> live,
+                                          DynamicIntervalTree<Integer> tree) {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (IntervalTree.IntervalData<Integer> data : live) {
+            start = Math.min(start, data.getStart());
+            end = Math.max(end, data.getEnd());
+        }
+        if (!live.isEmpty()) {
+            Assert.assertEquals(start, tree.getStart());
+            Assert.assertEquals(end, tree.getEnd());
+        }
+
+        for (int i = 0; i < 50; i++) {
+            final long from = random.nextInt(110000) - 5000;
+            final long to = from + random.nextInt(3000);
+
+            final Set<Integer> expected = new TreeSet<>();
+            final Set<Integer> stabbed = new TreeSet<>();
+            for (IntervalTree.IntervalData<Integer> data : live) {
+                if (data.getStart() <= to && data.getEnd() >= from)
+                    expected.addAll(data.getValues());
+                if (data.getStart() <= from && data.getEnd() >= from)
+                    stabbed.addAll(data.getValues());
+            }
+
+            Assert.assertEquals(expected, values(tree.query(from, to)));
+            Assert.assertEquals(stabbed, values(tree.query(from)));
+
+            final Set<Integer> visited = new TreeSet<>();
+            tree.query(from, to, new IntervalTree.Visitor<Integer>() {
+                @Override
+                public boolean visit(long start, long end, Integer value) {
+                    return visited.add(value);
+                }
+            });
+            Assert.assertEquals(expected, visited);
+        }
+    }
+
+    private static <O> Set<O> values(IntervalTree.IntervalData<O> data) {
+        return data == null ? Collections.<O>emptySet() : data.getValues();
+    }
+}
@@ -0,0 +1,112 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.joda.time.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class FreeSlotsTest {
+    private final Activity breakfast = new Activity(new Instant(0), new Instant(9), "Breakfast");
+    private final Activity lunch = new Activity(new Instant(50), new Instant(99), "Lunch");
+    private final Activity meeting = new Activity(new Instant(100), new Instant(149), "Meeting");
+    private final Activity dinner = new Activity(new Instant(30), new Instant(60), "Dinner");
+
+    @Test
+    public void testFind() throws Exception {
+        final Schedule alice = new Schedule(Lists.newArrayList(breakfast, meeting));
+        final Schedule bob = new Schedule(Lists.newArrayList(dinner, lunch));
+        final List<Schedule> both = Lists.newArrayList(alice, bob);
+
+        // busy over 0..9 and 30..149, lunch ends where the meeting starts
+        Assert.assertEquals(Lists.newArrayList(new Interval(10, 30), new Interval(150, 300)),
+                FreeSlots.find(both, new Interval(0, 300), new Duration(10), 10));
+        Assert.assertEquals(Lists.newArrayList(new Interval(150, 300)),
+                FreeSlots.find(both, new Interval(0, 300), new Duration(21), 10));
+        Assert.assertEquals(Lists.newArrayList(new Interval(10, 30)),
+                FreeSlots.find(both, new Interval(0, 300), new Duration(1), 1));
+        Assert.assertEquals(new Interval(20, 30), FreeSlots.findEarliest(both, new Interval(20, 200), new Duration(10)));
+        Assert.assertNull(FreeSlots.findEarliest(both, new Interval(20, 200), new Duration(60)));
+        Assert.assertEquals(Lists.newArrayList(new Interval(-50, 0), new Interval(10, 50)),
+                FreeSlots.find(Lists.newArrayList(alice, new Schedule(Lists.newArrayList(lunch))),
+                        new Interval(-50, 100), new Duration(1), 10));
+        Assert.assertEquals(Lists.newArrayList(new Interval(0, 100)),
+                FreeSlots.find(Collections.<Schedule>emptyList(), new Interval(0, 100), new Duration(100), 10));
+        Assert.assertTrue(FreeSlots.find(both, new Interval(0, 300), new Duration(10), 0).isEmpty());
+    }
+
+    @Test
+    public void testFindByResource() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final ResourceSchedule<String> schedule = new ResourceSchedule<>(ImmutableMap.of(
+                "Alice", Lists.newArrayList(breakfast, meeting),
+                "Bob", Lists.newArrayList(dinner, lunch)), pool);
+
+        Assert.assertEquals(Lists.newArrayList(new Interval(10, 30), new Interval(150, 300)),
+                schedule.getFreeSlots(Lists.newArrayList("Alice", "Bob", "Carol"), new Interval(0, 300), new Duration(10), 10));
+        Assert.assertEquals(Lists.newArrayList(new Interval(10, 100)),
+                schedule.getFreeSlots(Lists.newArrayList("Alice"), new Interval(0, 300), new Duration(10), 1));
+        pool.shutdown();
+    }
+
+    @Test
+    public void testFindRandomly() throws Exception {
+        final Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            final List<Schedule> schedules = new ArrayList<>();
+            final boolean[] busy = new boolean[3000];
+            final int attendees = 1 + random.nextInt(5);
+            for (int i = 0; i < attendees; i++) {
+                final List<Activity> activities = new ArrayList<>();
+                final int count = random.nextInt(20);
+                for (int j = 0; j < count; j++) {
+                    final long start = random.nextInt(2900);
+                    final Activity activity = new Activity(start, start + random.nextInt(100), "Activity " + j);
+                    activities.add(activity);
+                    for (long t = activity.getStartMillis(); t <= activity.getEndMillis(); t++) {
+                        busy[(int) t] = true;
+                    }
+                }
+                final Schedule schedule = new Schedule(activities);
+                if (random.nextBoolean() && !activities.isEmpty()) {
+                    // a changed schedule is backed by a dynamic tree
+                    schedule.remove(activities.get(0));
+                    schedule.add(activities.get(0));
+                }
+                schedules.add(schedule);
+            }
+
+            final int from = random.nextInt(1500);
+            final int to = from + 1 + random.nextInt(1500);
+            final int duration = random.nextInt(80);
+            final List<Interval> expected = new ArrayList<>();
+            for (int t = from; t < to; ) {
+                if (busy[t]) {
+                    t++;
+                    continue;
+                }
+                int gapEnd = t;
+                while (gapEnd < to && !busy[gapEnd]) {
+                    gapEnd++;
+                }
+                if (gapEnd - t >= Math.max(1, duration)) {
+                    expected.add(new Interval(t, gapEnd));
+                }
+                t = gapEnd;
+            }
+
+            final Interval window = new Interval(from, to);
+            Assert.assertEquals(expected, FreeSlots.find(schedules, window, new Duration(duration), Integer.MAX_VALUE));
+            Assert.assertEquals(expected.subList(0, Math.min(2, expected.size())),
+                    FreeSlots.find(schedules, window, new Duration(duration), 2));
+        }
+    }
+}
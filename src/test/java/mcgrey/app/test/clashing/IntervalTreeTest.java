@@ -3,9 +3,13 @@ package mcgrey.app.test.clashing;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class IntervalTreeTest {
     @Test
@@ -32,6 +36,192 @@ public class IntervalTreeTest {
         Assert.assertArrayEquals(new String[]{"Four", "One", "Two"}, actual);
     }
 
+    @Test
+    public void testVisitorQuery() throws Exception {
+        final Random random = new Random(7);
+        final List<IntervalTree.IntervalData<Integer>> intervals = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final long start = random.nextInt(100000) - 50000;
+            intervals.add(new IntervalTree.IntervalData<>(start, start + random.nextInt(3000), i));
+        }
+        final IntervalTree<Integer> tree = new IntervalTree<>(intervals);
+
+        for (int i = 0; i < 200; i++) {
+            final long start = random.nextInt(120000) - 60000;
+            final long end = start + random.nextInt(5000);
+
+            final Set<Integer> ranged = new TreeSet<>();
+            Assert.assertTrue(tree.query(start, end, new IntervalTree.Visitor<Integer>() {
+                @Override
+                public boolean visit(long start, long end, Integer value) {
+                    Assert.assertEquals(intervals.get(value).getStart(), start);
+                    Assert.assertEquals(intervals.get(value).getEnd(), end);
+                    return ranged.add(value);
+                }
+            }));
+            Assert.assertEquals(values(tree.query(start, end)), ranged);
+
+            final Set<Integer> stabbed = new TreeSet<>();
+            Assert.assertTrue(tree.query(start, new IntervalTree.Visitor<Integer>() {
+                @Override
+                public boolean visit(long start, long end, Integer value) {
+                    return stabbed.add(value);
+                }
+            }));
+            Assert.assertEquals(values(tree.query(start)), stabbed);
+
+            final int[] count = new int[1];
+            tree.query(start, end, new IntervalTree.LongVisitor() {
+                @Override
+                public boolean visit(long start, long end) {
+                    count[0]++;
+                    return true;
+                }
+            });
+            Assert.assertEquals(ranged.size(), count[0]);
+        }
+    }
+
+    @Test
+    public void testHighOverlap() throws Exception {
+        // Most of the intervals contain 0, some are scattered around, some share the bounds
+        final Random random = new Random(13);
+        final List<IntervalTree.IntervalData<Integer>> intervals = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            final long start = i % 3 == 0 ? random.nextInt(100000) - 50000 : -random.nextInt(1000);
+            final long end = i % 3 == 0 ? start + random.nextInt(3000) : random.nextInt(1000);
+            intervals.add(new IntervalTree.IntervalData<>(start, end, i));
+            if (i % 100 == 0)
+                intervals.add(new IntervalTree.IntervalData<>(start, end, -i - 1));
+        }
+        final IntervalTree<Integer> tree = new IntervalTree<>(intervals);
+
+        for (int i = 0; i < 200; i++) {
+            final long start = random.nextInt(120000) - 60000;
+            final long end = i % 2 == 0 ? start : start + random.nextInt(5000);
+
+            final Set<Integer> expected = new TreeSet<>();
+            for (IntervalTree.IntervalData<Integer> interval : intervals) {
+                if (interval.getStart() <= end && interval.getEnd() >= start)
+                    expected.addAll(interval.getValues());
+            }
+
+            final Set<Integer> actual = new TreeSet<>();
+            tree.query(start, end, new IntervalTree.Visitor<Integer>() {
+                @Override
+                public boolean visit(long start, long end, Integer value) {
+                    return actual.add(value);
+                }
+            });
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testBatchedQuery() throws Exception {
+        final Random random = new Random(71);
+        final List<IntervalTree.IntervalData<Integer>> intervals = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            final long start = random.nextInt(100000);
+            intervals.add(new IntervalTree.IntervalData<>(start, start + random.nextInt(i % 10 == 0 ? 20000 : 500), i));
+        }
+        final IntervalTree<Integer> tree = new IntervalTree<>(intervals);
+
+        // Consecutive ranges, overlapping ranges of the same length and points, all ordered by start and by end
+        for (long[] shape : new long[][]{{-2000, 100, 100}, {-500, 37, 400}, {50000, 0, 1}, {0, 1000, 0}}) {
+            final int count = 1200;
+            final long[] starts = new long[count];
+            final long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = shape[0] + i * shape[2];
+                ends[i] = starts[i] + shape[1] - (shape[1] > 0 ? 1 : 0);
+            }
+
+            final List<List<Integer>> visited = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                visited.add(new ArrayList<Integer>());
+            }
+            tree.query(starts, ends, new IntervalTree.RangeVisitor<Integer>() {
+                @Override
+                public boolean visit(int range, long start, long end, Integer value) {
+                    return visited.get(range).add(value);
+                }
+            });
+            final List<IntervalTree.IntervalData<Integer>> queried = tree.query(starts, ends);
+
+            for (int i = 0; i < count; i++) {
+                final List<Integer> expected = new ArrayList<>();
+                tree.query(starts[i], ends[i], new IntervalTree.Visitor<Integer>() {
+                    @Override
+                    public boolean visit(long start, long end, Integer value) {
+                        return expected.add(value);
+                    }
+                });
+                Assert.assertEquals("The range " + i + " must be visited in the order of the single query.", expected, visited.get(i));
+                Assert.assertEquals(tree.query(starts[i], ends[i]), queried.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedQueryStops() throws Exception {
+        final List<IntervalTree.IntervalData<String>> intervals = new ArrayList<>();
+        intervals.add(new IntervalTree.IntervalData<>(0, 4, "One"));
+        intervals.add(new IntervalTree.IntervalData<>(2, 6, "Two"));
+        intervals.add(new IntervalTree.IntervalData<>(-100, 100, "Four"));
+        final IntervalTree<String> tree = new IntervalTree<>(intervals);
+
+        final int[] visits = new int[1];
+        Assert.assertFalse(tree.query(new long[]{0, 3, 5}, new long[]{1, 4, 6}, new IntervalTree.RangeVisitor<String>() {
+            @Override
+            public boolean visit(int range, long start, long end, String value) {
+                return ++visits[0] < 3;
+            }
+        }));
+        Assert.assertEquals(3, visits[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchedQueryRejectsUnorderedRanges() throws Exception {
+        final List<IntervalTree.IntervalData<String>> intervals = new ArrayList<>();
+        intervals.add(new IntervalTree.IntervalData<>(0, 4, "One"));
+        final IntervalTree<String> tree = new IntervalTree<>(intervals);
+        tree.query(new long[]{0, 1}, new long[]{10, 5});
+    }
+
+    @Test
+    public void testVisitorQueryStops() throws Exception {
+        List<IntervalTree.IntervalData<String>> intervals = new LinkedList<>();
+        intervals.add(new IntervalTree.IntervalData<>(0, 4, "One"));
+        intervals.add(new IntervalTree.IntervalData<>(2, 6, "Two"));
+        intervals.add(new IntervalTree.IntervalData<>(-100, 100, "Four"));
+
+        IntervalTree<String> tree = new IntervalTree<>(intervals);
+
+        final List<String> visited = new ArrayList<>();
+        Assert.assertFalse(tree.query(3, new IntervalTree.Visitor<String>() {
+            @Override
+            public boolean visit(long start, long end, String value) {
+                visited.add(value);
+                return false;
+            }
+        }));
+        Assert.assertEquals(1, visited.size());
+
+        Assert.assertTrue(new IntervalTree<>(new LinkedList<IntervalTree.IntervalData<String>>())
+                .query(3, new IntervalTree.LongVisitor() {
+                    @Override
+                    public boolean visit(long start, long end) {
+                        Assert.fail("The empty tree has no intervals.");
+                        return false;
+                    }
+                }));
+    }
+
+    private static <O> Set<O> values(IntervalTree.IntervalData<O> data) {
+        return data == null ? Collections.<O>emptySet() : data.getValues();
+    }
+
     @Test
     public void testMiddle() {
         Assert.assertEquals(0, mcgrey.app.test.clashing.IntervalTree.IntervalData.middle(0, 0));
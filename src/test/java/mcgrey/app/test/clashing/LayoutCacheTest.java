@@ -0,0 +1,148 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LayoutCacheTest {
+    @Test
+    public void testGetSlotsBy() throws Exception {
+        final Schedule schedule = new Schedule(ScheduleTest.randomActivities(new Random(41), 300, 100000, 2000));
+        final LayoutCache cache = LayoutCache.ofSize(10);
+        final Duration slotSize = new Duration(100);
+
+        final Schedule.ScheduleLayout layout = cache.getSlotsBy(schedule, slotSize);
+        ScheduleTest.assertSameLayout(schedule.getSlotsBy(slotSize, Schedule.Engine.SWEEP), layout);
+        Assert.assertSame(layout, cache.getSlotsBy(schedule, new Duration(100)));
+        Assert.assertNotSame(layout, cache.getSlotsBy(schedule, new Duration(1000)));
+
+        // another schedule with the same activities has its own layouts
+        final Schedule other = new Schedule(ScheduleTest.randomActivities(new Random(41), 300, 100000, 2000));
+        Assert.assertNotSame(layout, cache.getSlotsBy(other, slotSize));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        final List<Activity> activities = ScheduleTest.randomActivities(new Random(42), 300, 100000, 2000);
+        final Schedule schedule = new Schedule(activities);
+        final LayoutCache cache = LayoutCache.ofSize(10);
+        final Duration slotSize = new Duration(100);
+
+        final Schedule.ScheduleLayout layout = cache.getSlotsBy(schedule, slotSize);
+        final Activity added = new Activity(5000, 7000, "Added");
+        schedule.add(added);
+        activities.add(added);
+
+        final Schedule.ScheduleLayout changed = cache.getSlotsBy(schedule, slotSize);
+        Assert.assertNotSame(layout, changed);
+        ScheduleTest.assertSameLayout(new Schedule(activities).getSlotsBy(slotSize), changed);
+        Assert.assertSame(changed, cache.getSlotsBy(schedule, slotSize));
+
+        Assert.assertFalse(schedule.remove(new Activity(5000, 7001, "Added")));
+        Assert.assertSame(changed, cache.getSlotsBy(schedule, slotSize));
+
+        Assert.assertEquals(1, cache.getInvalidationCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.getHitCount());
+
+        cache.invalidate(schedule);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCollectedSchedule() throws Exception {
+        final LayoutCache cache = LayoutCache.ofSize(10);
+        final Duration slotSize = new Duration(100);
+        Schedule schedule = new Schedule(ScheduleTest.randomActivities(new Random(44), 300, 100000, 2000));
+        cache.getSlotsBy(schedule, slotSize);
+        cache.getSlotsBy(schedule, new Duration(1000));
+        final WeakReference<Schedule> reference = new WeakReference<>(schedule);
+        schedule = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull("The cache must not keep the schedule.", reference.get());
+
+        // the collected keys are queued by the collector shortly after
+        final Schedule other = new Schedule(ScheduleTest.randomActivities(new Random(45), 300, 100000, 2000));
+        cache.getSlotsBy(other, slotSize);
+        for (int i = 0; i < 50 && cache.size() > 1; i++) {
+            Thread.sleep(10);
+            cache.getSlotsBy(other, slotSize);
+        }
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final Schedule schedule = new Schedule(ScheduleTest.randomActivities(new Random(43), 300, 100000, 2000));
+        final LayoutCache cache = LayoutCache.ofSize(2);
+
+        for (long size : new long[]{100, 200, 100, 300, 100, 200}) {
+            cache.getSlotsBy(schedule, new Duration(size));
+        }
+
+        // 200 is the least recently used when 300 comes, then 300 when 200 comes again
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.getEvictionCount());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictionByWeight() throws Exception {
+        final Schedule schedule = new Schedule(ScheduleTest.randomActivities(new Random(44), 300, 100000, 2000));
+        final Schedule.ScheduleLayout fine = schedule.getSlotsBy(new Duration(10));
+        final int weight = 1 + fine.getOccupiedTimeSlots().size() + fine.getActivityBars().size();
+        final LayoutCache cache = LayoutCache.ofWeight(weight - 1);
+
+        // the fine layout is too heavy to be kept, the coarse one is light enough
+        cache.getSlotsBy(schedule, new Duration(10));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        final Schedule.ScheduleLayout coarse = cache.getSlotsBy(schedule, new Duration(1000));
+        Assert.assertSame(coarse, cache.getSlotsBy(schedule, new Duration(1000)));
+        Assert.assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentMisses() throws Exception {
+        final Schedule schedule = new Schedule(ScheduleTest.randomActivities(new Random(45), 3000, 1000000, 2000));
+        final LayoutCache cache = LayoutCache.ofSize(10);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Schedule.ScheduleLayout>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Schedule.ScheduleLayout>() {
+                    @Override
+                    public Schedule.ScheduleLayout call() {
+                        return cache.getSlotsBy(schedule, new Duration(10));
+                    }
+                }));
+            }
+            final Schedule.ScheduleLayout layout = futures.get(0).get();
+            for (Future<Schedule.ScheduleLayout> future : futures) {
+                Assert.assertSame(layout, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(8, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -0,0 +1,115 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class LayoutSnapshotTest {
+    @Test
+    public void testReadWrite() throws Exception {
+        final List<Activity> activities = ScheduleTest.randomActivities(new Random(31), 500, 100000, 2000);
+        activities.add(new Activity(20000, 70000, "Долгая"));
+        activities.add(new Activity(90000, 91000, null));
+        final Schedule schedule = new Schedule(activities);
+
+        for (long size : new long[]{1, 333, 5000}) {
+            final Schedule.ScheduleLayout layout = schedule.getSlotsBy(new Duration(size));
+            final Schedule.ScheduleLayout read = LayoutSnapshot.read(LayoutSnapshot.write(layout));
+
+            ScheduleTest.assertSameLayout(layout, read);
+            Assert.assertEquals(layout.getOccupiedTimeSlots().size(), read.getOccupiedTimeSlots().size());
+        }
+    }
+
+    @Test
+    public void testReadWriteWindow() throws Exception {
+        final Schedule schedule = new Schedule(ScheduleTest.randomActivities(new Random(32), 500, 100000, 2000));
+        final Duration slotSize = new Duration(100);
+        final Schedule.ScheduleLayout layout = schedule.getSlotsBy(slotSize, new Interval(30050, 42000));
+
+        // The snapshot is read from a direct buffer, past a few bytes of something else
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LayoutSnapshot.write(layout, output);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(output.size() + 3);
+        buffer.put(new byte[3]).put(output.toByteArray()).flip();
+        buffer.position(3);
+        ScheduleTest.assertSameLayout(layout, LayoutSnapshot.read(buffer));
+        Assert.assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void testReadWriteEmpty() throws Exception {
+        final Schedule.ScheduleLayout layout = new Schedule.ScheduleLayout(new Duration(10),
+                Collections.<Schedule.TimeSlot>emptyList(), Collections.<Schedule.ActivityBar>emptyList());
+        final Schedule.ScheduleLayout read = LayoutSnapshot.read(LayoutSnapshot.write(layout));
+
+        Assert.assertTrue(read.getTimeSlots().isEmpty());
+        Assert.assertTrue(read.getActivityBars().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws Exception {
+        final ByteBuffer buffer = LayoutSnapshot.write(new Schedule(ScheduleTest.randomActivities(new Random(33), 10, 1000, 100))
+                .getSlotsBy(new Duration(10)));
+        buffer.order(LayoutSnapshot.ORDER).putInt(4, LayoutSnapshot.VERSION + 1);
+        LayoutSnapshot.read(buffer);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        final ByteBuffer buffer = LayoutSnapshot.write(new Schedule(ScheduleTest.randomActivities(new Random(34), 10, 1000, 100))
+                .getSlotsBy(new Duration(10)));
+        buffer.limit(buffer.limit() - 5);
+        LayoutSnapshot.read(buffer);
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        final Schedule.ScheduleLayout layout = new Schedule(Collections.singletonList(new Activity(0, 99, "A")))
+                .getSlotsBy(new Duration(10));
+        // the bar count, the slot count, the name count, the start of the bar and the length of the last name
+        final int[] offsets = {28, 36, 40, LayoutSnapshot.HEADER_SIZE, LayoutSnapshot.write(layout).limit() - 5};
+        for (int offset : offsets) {
+            for (int value : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+                final ByteBuffer buffer = LayoutSnapshot.write(layout);
+                buffer.order(LayoutSnapshot.ORDER).putInt(offset, value);
+                try {
+                    LayoutSnapshot.read(buffer);
+                    Assert.fail(String.format("The value %d at %d must be rejected.", value, offset));
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptSlots() throws Exception {
+        final Schedule.ScheduleLayout layout = new Schedule(Collections.singletonList(new Activity(0, 99, "A")))
+                .getSlotsBy(new Duration(10));
+        // the nine slots of the bar follow it, every slot is its index, its member count and the id of the bar
+        final int slots = LayoutSnapshot.HEADER_SIZE + LayoutSnapshot.BAR_SIZE;
+        final int[][] values = {
+                {slots, -1}, {slots + 12, 0}, {slots + 12 * 8, 9}, {slots + 12 * 8, 7}, {slots + 4, -1},
+                {slots + 8, 1}, {slots + 8, -1}, {LayoutSnapshot.HEADER_SIZE + 24, 1}, {LayoutSnapshot.HEADER_SIZE + 24, -2}};
+        for (int[] value : values) {
+            final ByteBuffer buffer = LayoutSnapshot.write(layout);
+            buffer.order(LayoutSnapshot.ORDER).putInt(value[0], value[1]);
+            try {
+                LayoutSnapshot.read(buffer);
+                Assert.fail(String.format("The value %d at %d must be rejected.", value[1], value[0]));
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(9, LayoutSnapshot.read(LayoutSnapshot.write(layout)).getTimeSlots().size());
+    }
+}
@@ -0,0 +1,128 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.Lists;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LayoutStatisticsTest {
+    private LayoutStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = new LayoutStatistics();
+        Instrumentation.setListener(statistics);
+    }
+
+    @After
+    public void tearDown() {
+        Instrumentation.setListener(null);
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        final List<IntervalTree.IntervalData<String>> intervals = new ArrayList<>();
+        intervals.add(new IntervalTree.IntervalData<>(0, 10, "a"));
+        intervals.add(new IntervalTree.IntervalData<>(5, 25, "b"));
+        intervals.add(new IntervalTree.IntervalData<>(20, 30, "c"));
+        intervals.add(new IntervalTree.IntervalData<>(40, 50, "d"));
+        intervals.add(new IntervalTree.IntervalData<>(60, 70, "e"));
+        final IntervalTree<String> tree = new IntervalTree<>(intervals);
+        Assert.assertEquals(1, statistics.getTreesBuilt());
+        Assert.assertTrue(statistics.getMaxTreeDepth() >= 3 && statistics.getMaxTreeDepth() <= 5);
+
+        final int[] hits = new int[1];
+        tree.query(8, 22, new IntervalTree.Visitor<String>() {
+            @Override
+            public boolean visit(long start, long end, String value) {
+                hits[0]++;
+                return true;
+            }
+        });
+        Assert.assertEquals(3, hits[0]);
+        Assert.assertEquals(3, statistics.getHits());
+        Assert.assertEquals(1, statistics.getQueries());
+        Assert.assertTrue(statistics.getNodeVisits() >= 1);
+
+        Assert.assertEquals(1, tree.query(45).getValues().size());
+        Assert.assertEquals(4, statistics.getHits());
+        Assert.assertEquals(2, statistics.getQueries());
+        Assert.assertEquals(3, statistics.getMaxHits());
+
+        // a stopped query counts only the node it has stopped in
+        final long visits = statistics.getNodeVisits();
+        Assert.assertFalse(tree.query(0, 70, new IntervalTree.Visitor<String>() {
+            @Override
+            public boolean visit(long start, long end, String value) {
+                return false;
+            }
+        }));
+        Assert.assertEquals(5, statistics.getHits());
+        Assert.assertEquals(visits + 1, statistics.getNodeVisits());
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        final Schedule schedule = new Schedule(Lists.newArrayList(
+                new Activity(new Instant(0), new Instant(99), "Lunch"),
+                new Activity(new Instant(0), new Instant(15), "Tea"),
+                new Activity(new Instant(500), new Instant(599), "Dinner")));
+        final Schedule.ScheduleLayout layout = schedule.getSlotsBy(new Duration(10));
+
+        Assert.assertEquals(1, statistics.getTreesBuilt());
+        Assert.assertEquals(1, statistics.getLayouts());
+        Assert.assertEquals(layout.getOccupiedTimeSlots().size(), statistics.getSlotsProduced());
+        Assert.assertEquals(layout.getTimeSlots().size() - layout.getOccupiedTimeSlots().size(), statistics.getEmptySlotsSkipped());
+        // the slots of a block share one batched query
+        Assert.assertEquals(1, statistics.getQueries());
+        Assert.assertEquals(layout.getOccupiedTimeSlots().size(), statistics.getCalculatedSlots());
+
+        long layouts = 0;
+        for (long count : statistics.getLayoutLatencyHistogram()) {
+            layouts += count;
+        }
+        Assert.assertEquals(1, layouts);
+        Assert.assertTrue(statistics.getLayoutTime() >= statistics.getCalculationTime());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        Instrumentation.setListener(null);
+        new Schedule(Lists.newArrayList(new Activity(new Instant(0), new Instant(99), "Lunch"))).getSlotsBy(new Duration(10));
+
+        Assert.assertEquals(0, statistics.getTreesBuilt());
+        Assert.assertEquals(0, statistics.getQueries());
+        Assert.assertEquals(0, statistics.getLayouts());
+    }
+
+    @Test
+    public void testBucket() throws Exception {
+        Assert.assertEquals(0, LayoutStatistics.bucket(0));
+        Assert.assertEquals(1, LayoutStatistics.bucket(1));
+        Assert.assertEquals(2, LayoutStatistics.bucket(3));
+        Assert.assertEquals(11, LayoutStatistics.bucket(1024));
+        Assert.assertEquals(31, LayoutStatistics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = statistics.register(server);
+
+        new Schedule(Lists.newArrayList(new Activity(new Instant(0), new Instant(99), "Lunch"))).getSlotsBy(new Duration(10));
+        Assert.assertEquals(1L, server.getAttribute(name, "Layouts"));
+        Assert.assertEquals(32, ((long[]) server.getAttribute(name, "LayoutLatencyHistogram")).length);
+
+        server.invoke(name, "reset", null, null);
+        Assert.assertEquals(0L, server.getAttribute(name, "Layouts"));
+    }
+}
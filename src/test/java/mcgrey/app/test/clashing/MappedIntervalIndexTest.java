@@ -0,0 +1,153 @@
+package mcgrey.app.test.clashing;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class MappedIntervalIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testQuery() throws Exception {
+        final List<Activity> activities = ScheduleTest.randomActivities(new Random(21), 3000, 100000, 3000);
+        activities.add(new Activity(-5000, 200000, "Всё"));
+        activities.add(new Activity(-5000, 200000, null));
+        final ColumnarIntervalIndex<Activity> columnar = new ColumnarIntervalIndex<>(intervals(activities));
+
+        final File file = folder.newFile("activities.idx");
+        columnar.write(file, MappedIntervalIndex.ACTIVITIES);
+        final MappedIntervalIndex<Activity> mapped = new MappedIntervalIndex<>(file, MappedIntervalIndex.ACTIVITIES);
+
+        Assert.assertEquals(columnar.size(), mapped.size());
+        Assert.assertEquals(columnar.getStart(), mapped.getStart());
+        Assert.assertEquals(columnar.getEnd(), mapped.getEnd());
+
+        final Random random = new Random(22);
+        for (int i = 0; i < 300; i++) {
+            final long start = random.nextInt(220000) - 10000;
+            final long end = i % 2 == 0 ? start : start + random.nextInt(5000);
+
+            Assert.assertEquals(visit(columnar, start, end), visit(mapped, start, end));
+            Assert.assertEquals(columnar.query(start, end), mapped.query(start, end));
+            Assert.assertEquals(columnar.query(start), mapped.query(start));
+        }
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        final List<Activity> activities = ScheduleTest.randomActivities(new Random(23), 500, 100000, 2000);
+        final File file = folder.newFile("schedule.idx");
+        new ColumnarIntervalIndex<>(intervals(activities)).write(file, MappedIntervalIndex.ACTIVITIES);
+
+        final Schedule schedule = new Schedule(new MappedIntervalIndex<>(file, MappedIntervalIndex.ACTIVITIES));
+        final Duration slotSize = new Duration(333);
+        ScheduleTest.assertSameLayout(new Schedule(activities).getSlotsBy(slotSize), schedule.getSlotsBy(slotSize));
+
+        // The first change moves the activities out of the file
+        final Activity added = new Activity(500, 1500, "Added");
+        schedule.add(added);
+        activities.add(added);
+        ScheduleTest.assertSameLayout(new Schedule(activities).getSlotsBy(slotSize), schedule.getSlotsBy(slotSize));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final File file = folder.newFile("empty.idx");
+        new ColumnarIntervalIndex<>(Collections.<IntervalTree.IntervalData<Activity>>emptyList()).write(file, MappedIntervalIndex.ACTIVITIES);
+
+        final MappedIntervalIndex<Activity> mapped = new MappedIntervalIndex<>(file, MappedIntervalIndex.ACTIVITIES);
+        Assert.assertEquals(0, mapped.size());
+        Assert.assertNull(mapped.query(0, 100));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnIndex() throws Exception {
+        final File file = folder.newFile("other.idx");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[64]);
+        }
+        new MappedIntervalIndex<>(file, MappedIntervalIndex.ACTIVITIES);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(MappedIntervalIndex.HEADER_SIZE).order(MappedIntervalIndex.ORDER);
+        buffer.putInt(0, MappedIntervalIndex.MAGIC);
+        buffer.putInt(4, MappedIntervalIndex.VERSION);
+        buffer.putInt(8, 100);
+        buffer.putInt(12, 6);
+        new MappedIntervalIndex<>(buffer, MappedIntervalIndex.ACTIVITIES);
+    }
+
+    @Test
+    public void testCorruptHeader() throws Exception {
+        final int[][] headers = {{-1, 0}, {0, -1}, {0x20000000, 0}, {Integer.MAX_VALUE, 0}, {0, Integer.MAX_VALUE}};
+        for (int[] header : headers) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1024).order(MappedIntervalIndex.ORDER);
+            buffer.putInt(0, MappedIntervalIndex.MAGIC);
+            buffer.putInt(4, MappedIntervalIndex.VERSION);
+            buffer.putInt(8, header[0]);
+            buffer.putInt(16, header[1]);
+            try {
+                new MappedIntervalIndex<>(buffer, MappedIntervalIndex.ACTIVITIES);
+                Assert.fail("The header must be rejected: " + Arrays.toString(header));
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptRootLevel() throws Exception {
+        final List<Activity> activities = ScheduleTest.randomActivities(new Random(24), 1000, 100000, 2000);
+        final File file = folder.newFile("level.idx");
+        new ColumnarIntervalIndex<>(intervals(activities)).write(file, MappedIntervalIndex.ACTIVITIES);
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        new MappedIntervalIndex<>(ByteBuffer.wrap(bytes), MappedIntervalIndex.ACTIVITIES);
+
+        // 1000 intervals have the root at level 9
+        for (int level : new int[]{-1, 0, 8, 10, 30}) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.clone()).order(MappedIntervalIndex.ORDER);
+            buffer.putInt(12, level);
+            try {
+                new MappedIntervalIndex<>(buffer, MappedIntervalIndex.ACTIVITIES);
+                Assert.fail("The root level must be rejected: " + level);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    private static List<IntervalTree.IntervalData<Activity>> intervals(List<Activity> activities) {
+        final List<IntervalTree.IntervalData<Activity>> intervals = new ArrayList<>();
+        for (Activity activity : activities) {
+            intervals.add(new IntervalTree.IntervalData<>(activity.getStartMillis(), activity.getEndMillis(), activity));
+        }
+        return intervals;
+    }
+
+    private static List<String> visit(IntervalIndex<Activity> index, long start, long end) {
+        final List<String> visited = new ArrayList<>();
+        index.query(start, end, new IntervalTree.Visitor<Activity>() {
+            @Override
+            public boolean visit(long start, long end, Activity value) {
+                return visited.add(start + " " + end + " " + value);
+            }
+        });
+        return visited;
+    }
+}
@@ -0,0 +1,122 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.Lists;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.joda.time.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class RecurrenceTest {
+    private final Activity standup = new Activity(new Instant(100), new Instant(114), "Standup");
+
+    @Test
+    public void testOccurrences() throws Exception {
+        final Recurrence daily = new Recurrence(standup, new Duration(100), 5);
+        Assert.assertEquals(5, daily.getCount());
+        Assert.assertEquals(100, daily.getStartMillis());
+        Assert.assertEquals(514, daily.getEndMillis());
+
+        Assert.assertEquals(Lists.newArrayList(
+                        new Activity(200, 214, "Standup"), new Activity(300, 314, "Standup")),
+                daily.getOccurrences(new Interval(214, 301)));
+        Assert.assertTrue(daily.getOccurrences(new Interval(215, 300)).isEmpty());
+        Assert.assertTrue(daily.getOccurrences(new Interval(515, 10000)).isEmpty());
+        Assert.assertEquals(5, daily.getOccurrences(new Interval(-10000, 10000)).size());
+
+        final Recurrence until = new Recurrence(standup, new Duration(100), new Instant(400));
+        Assert.assertEquals(4, until.getCount());
+        Assert.assertEquals(414, until.getEndMillis());
+    }
+
+    @Test
+    public void testExcept() throws Exception {
+        final Recurrence daily = new Recurrence(standup, new Duration(100), 5)
+                .except(new Instant(100))
+                .except(new Instant(300))
+                .except(new Instant(350));
+        Assert.assertEquals(200, daily.getStartMillis());
+        Assert.assertEquals(Lists.newArrayList(
+                        new Activity(200, 214, "Standup"), new Activity(400, 414, "Standup"), new Activity(500, 514, "Standup")),
+                daily.getOccurrences(new Interval(0, 1000)));
+        Assert.assertEquals(daily, new Recurrence(standup, new Duration(100), 5)
+                .except(new Instant(350)).except(new Instant(300)).except(new Instant(100)));
+        Assert.assertEquals(0, daily.compareTo(daily.except(new Instant(300))));
+        Assert.assertTrue(daily.compareTo(new Recurrence(standup, new Duration(100), 5)) != 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExceptAll() throws Exception {
+        new Recurrence(standup, new Duration(100), 1).except(new Instant(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUntilBeforeStart() throws Exception {
+        new Recurrence(standup, new Duration(100), new Instant(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositivePeriod() throws Exception {
+        new Recurrence(standup, new Duration(0), 3);
+    }
+
+    @Test
+    public void testQueryRandomly() throws Exception {
+        final Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            final long start = random.nextInt(1000) - 500;
+            final Activity first = new Activity(start, start + random.nextInt(300), "Activity " + round);
+            Recurrence recurrence = new Recurrence(first, new Duration(1 + random.nextInt(200)), 1 + random.nextInt(50));
+            final long period = recurrence.getPeriod().getMillis();
+            for (int i = 0; i < 5; i++) {
+                final int index = random.nextInt(recurrence.getCount());
+                if (index > 0) {
+                    recurrence = recurrence.except(new Instant(start + index * period));
+                }
+            }
+
+            final List<Activity> all = new ArrayList<>();
+            recurrence.query(Long.MIN_VALUE, Long.MAX_VALUE, new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    Assert.assertEquals(start, value.getStartMillis());
+                    Assert.assertEquals(end, value.getEndMillis());
+                    return all.add(value);
+                }
+            });
+            Assert.assertEquals(all.get(0).getStartMillis(), recurrence.getStartMillis());
+            Assert.assertEquals(all.get(all.size() - 1).getEndMillis(), recurrence.getEndMillis());
+
+            for (int i = 0; i < 20; i++) {
+                final long from = random.nextInt(12000) - 1000;
+                final long to = from + random.nextInt(500);
+                final List<Activity> expected = new ArrayList<>();
+                for (Activity activity : all) {
+                    if (activity.getStartMillis() <= to && activity.getEndMillis() >= from) {
+                        expected.add(activity);
+                    }
+                }
+                final List<Activity> found = new ArrayList<>();
+                final List<Long> bounds = new ArrayList<>();
+                recurrence.query(from, to, new IntervalTree.Visitor<Activity>() {
+                    @Override
+                    public boolean visit(long start, long end, Activity value) {
+                        return found.add(value);
+                    }
+                });
+                recurrence.query(from, to, new IntervalTree.LongVisitor() {
+                    @Override
+                    public boolean visit(long start, long end) {
+                        return bounds.add(start);
+                    }
+                });
+                Assert.assertEquals(expected, found);
+                Assert.assertEquals(expected.size(), bounds.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class RecurringIndexTest {
+    @Test
+    public void testQueryRandomly() throws Exception {
+        final Random random = new Random(7);
+        final List<Activity> activities = ScheduleTest.randomActivities(random, 50, 5000, 200);
+        final List<Recurrence> recurrences = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            final long start = random.nextInt(4000) - 2000;
+            // a few periods, some occurrences longer than the period
+            final long period = new long[]{7, 100, 240}[random.nextInt(3)];
+            final Activity first = new Activity(start, start + random.nextInt(i % 5 == 0 ? 600 : 50), "Recurring " + i);
+            Recurrence recurrence = new Recurrence(first, new Duration(period), 1 + random.nextInt(40));
+            if (recurrence.getCount() > 2) {
+                recurrence = recurrence.except(new Instant(start + period));
+            }
+            recurrences.add(recurrence);
+        }
+
+        final List<IntervalTree.IntervalData<Activity>> intervals = new ArrayList<>();
+        for (Activity activity : activities) {
+            intervals.add(new IntervalTree.IntervalData<>(activity.getStartMillis(), activity.getEndMillis(), activity));
+        }
+        final RecurringIndex index = new RecurringIndex(new IntervalTree<>(intervals), recurrences.subList(0, 40));
+        for (Recurrence recurrence : recurrences.subList(40, 60)) {
+            index.add(recurrence);
+        }
+        Assert.assertTrue(index.remove(recurrences.get(3)));
+        Assert.assertFalse(index.remove(recurrences.get(3)));
+        final List<Recurrence> kept = new ArrayList<>(recurrences);
+        kept.remove(3);
+
+        final List<Activity> all = new ArrayList<>(activities);
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (Activity activity : activities) {
+            start = Math.min(start, activity.getStartMillis());
+            end = Math.max(end, activity.getEndMillis());
+        }
+        for (Recurrence recurrence : kept) {
+            recurrence.query(Long.MIN_VALUE, Long.MAX_VALUE, new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    return all.add(value);
+                }
+            });
+            start = Math.min(start, recurrence.getStartMillis());
+            end = Math.max(end, recurrence.getEndMillis());
+        }
+        Assert.assertEquals(start, index.getStart());
+        Assert.assertEquals(end, index.getEnd());
+
+        for (int i = 0; i < 500; i++) {
+            final long from = random.nextInt(16000) - 4000;
+            final long to = from + random.nextInt(i % 2 == 0 ? 20 : 1000);
+            final Multiset<Activity> expected = HashMultiset.create();
+            for (Activity activity : all) {
+                if (activity.getStartMillis() <= to && activity.getEndMillis() >= from) {
+                    expected.add(activity);
+                }
+            }
+
+            final Multiset<Activity> found = HashMultiset.create();
+            index.query(from, to, new IntervalTree.Visitor<Activity>() {
+                @Override
+                public boolean visit(long start, long end, Activity value) {
+                    return found.add(value);
+                }
+            });
+            Assert.assertEquals(expected, found);
+
+            final int[] bounds = new int[1];
+            index.query(from, to, new IntervalTree.LongVisitor() {
+                @Override
+                public boolean visit(long start, long end) {
+                    bounds[0]++;
+                    return true;
+                }
+            });
+            Assert.assertEquals(expected.size(), bounds[0]);
+
+            final IntervalTree.IntervalData<Activity> data = index.query(from, to);
+            Assert.assertEquals(expected.isEmpty(), data == null);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final RecurringIndex index = new RecurringIndex(
+                new IntervalTree<>(Collections.<IntervalTree.IntervalData<Activity>>emptyList()),
+                Collections.<Recurrence>emptyList());
+        Assert.assertTrue(RecurringIndex.isEmpty(index));
+        Assert.assertNull(index.query(0, 100));
+
+        final Recurrence recurrence = new Recurrence(new Activity(-50, -40, "Recurring"), new Duration(100), 3);
+        index.add(recurrence);
+        Assert.assertFalse(RecurringIndex.isEmpty(index));
+        Assert.assertEquals(-50, index.getStart());
+        Assert.assertEquals(160, index.getEnd());
+        Assert.assertEquals(1, index.query(150).getValues().size());
+        Assert.assertTrue(index.remove(recurrence));
+        Assert.assertTrue(RecurringIndex.isEmpty(index));
+    }
+}
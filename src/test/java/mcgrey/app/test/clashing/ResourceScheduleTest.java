@@ -0,0 +1,237 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Booleans;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.joda.time.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+public class ResourceScheduleTest {
+    private final Activity breakfast = new Activity(new Instant(0), new Instant(9), "Breakfast");
+    private final Activity lunch = new Activity(new Instant(5), new Instant(99), "Lunch");
+    private final Activity meeting = new Activity(new Instant(150), new Instant(199), "Meeting");
+    private final Activity dinner = new Activity(new Instant(50), new Instant(120), "Dinner");
+
+    @Test
+    public void testBusy() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final ResourceSchedule<String> schedule = new ResourceSchedule<>(ImmutableMap.of(
+                "Alice", Lists.newArrayList(breakfast, lunch, meeting),
+                "Bob", Lists.newArrayList(dinner),
+                "Carol", new ArrayList<Activity>()), pool);
+
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob", "Carol"), schedule.getResources());
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), schedule.getBusy(new Interval(90, 100)));
+        Assert.assertEquals(Sets.newHashSet("Carol"), schedule.getFree(new Interval(90, 100)));
+        // breakfast and lunch make one block up to 99, the block ends at 99 inclusive
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), schedule.getBusyThroughout(new Interval(60, 100)));
+        Assert.assertEquals(Sets.newHashSet("Bob"), schedule.getBusyThroughout(new Interval(60, 101)));
+        Assert.assertEquals(Sets.newHashSet("Alice"), schedule.getBusy(new Interval(121, 151)));
+        Assert.assertTrue(schedule.getBusy(new Interval(121, 150)).isEmpty());
+        Assert.assertTrue(schedule.getBusy(new Interval(100, 100)).isEmpty());
+
+        final Map<String, List<Activity>> clashes = schedule.getClashes(new Activity(100, 150, "Tea"));
+        Assert.assertEquals(ImmutableMap.of("Alice", Lists.newArrayList(meeting), "Bob", Lists.newArrayList(dinner)), clashes);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final ResourceSchedule<String> schedule = new ResourceSchedule<>(ImmutableMap.of(
+                "Alice", Lists.newArrayList(breakfast, meeting)), pool);
+
+        Assert.assertTrue(schedule.getBusyThroughout(new Interval(50, 60)).isEmpty());
+        schedule.add("Alice", lunch);
+        schedule.add("Alice", dinner);
+        schedule.add("Bob", meeting);
+        // breakfast, lunch and dinner make one block from 0 to 120
+        Assert.assertEquals(Sets.newHashSet("Alice"), schedule.getBusyThroughout(new Interval(0, 121)));
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), schedule.getBusy(new Interval(160, 170)));
+        Assert.assertEquals(4, schedule.getSchedule("Alice").countClashes(new Activity(0, 200, null)));
+
+        Assert.assertTrue(schedule.remove("Alice", lunch));
+        Assert.assertFalse(schedule.remove("Alice", lunch));
+        Assert.assertFalse(schedule.remove("Carol", lunch));
+        // the block is split into breakfast and dinner
+        Assert.assertTrue(schedule.getBusy(new Interval(10, 50)).isEmpty());
+        Assert.assertEquals(Sets.newHashSet("Alice"), schedule.getBusyThroughout(new Interval(50, 121)));
+
+        final Map<String, Schedule.ScheduleLayout> layouts = schedule.getSlotsBy(new Duration(10), pool);
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), layouts.keySet());
+        Assert.assertEquals(3, layouts.get("Alice").getActivityBars().size());
+        Assert.assertEquals(1, layouts.get("Bob").getActivityBars().size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testRecurrences() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final ResourceSchedule<String> schedule = new ResourceSchedule<>(ImmutableMap.of(
+                "Alice", Lists.newArrayList(breakfast, meeting)), pool);
+
+        // the first standup is adjacent to the meeting and makes one block with it
+        final Recurrence standup = new Recurrence(new Activity(200, 229, "Standup"), new Duration(1000), 5);
+        schedule.add("Alice", standup);
+        schedule.add("Bob", standup);
+        Assert.assertEquals(Sets.newHashSet("Alice"), schedule.getBusyThroughout(new Interval(150, 230)));
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), schedule.getBusy(new Interval(3210, 3220)));
+        Assert.assertTrue(schedule.getBusy(new Interval(4300, 5300)).isEmpty());
+        Assert.assertEquals(ImmutableMap.of("Alice", Lists.newArrayList(new Activity(2200, 2229, "Standup"))),
+                Maps.filterKeys(schedule.getClashes(new Activity(2220, 2300, "Tea")), Predicates.equalTo("Alice")));
+
+        Assert.assertTrue(schedule.remove("Alice", standup));
+        Assert.assertFalse(schedule.remove("Alice", standup));
+        Assert.assertEquals(Sets.newHashSet("Bob"), schedule.getBusy(new Interval(200, 4300)));
+        Assert.assertEquals(Sets.newHashSet("Alice"), schedule.getBusyThroughout(new Interval(150, 200)));
+        Assert.assertTrue(schedule.getBusyThroughout(new Interval(150, 201)).isEmpty());
+        pool.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void testLongRecurrence() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final ResourceSchedule<String> schedule = new ResourceSchedule<>(ImmutableMap.of(
+                "Alice", Lists.newArrayList(breakfast, meeting)), pool);
+        final int blocks = schedule.getBlockCount();
+
+        // a daily standup for millions of years, expanded it would never fit in the blocks
+        final long day = Duration.standardDays(1).getMillis();
+        final Recurrence standup = new Recurrence(new Activity(200, 229, "Standup"), Duration.standardDays(1),
+                Integer.MAX_VALUE);
+        schedule.add("Alice", standup);
+        schedule.add("Bob", standup);
+        Assert.assertEquals(blocks, schedule.getBlockCount());
+
+        final long far = 1000000000L * day;
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), schedule.getBusy(new Interval(far + 210, far + 220)));
+        Assert.assertEquals(Sets.newHashSet("Alice", "Bob"), schedule.getBusyThroughout(new Interval(far + 200, far + 230)));
+        Assert.assertTrue(schedule.getBusy(new Interval(far + 230, far + day + 200)).isEmpty());
+        final List<Activity> occurrence = Lists.newArrayList(new Activity(far + 200, far + 229, "Standup"));
+        Assert.assertEquals(ImmutableMap.of("Alice", occurrence, "Bob", occurrence),
+                schedule.getClashes(new Activity(far, far + 200, "Tea")));
+
+        Assert.assertTrue(schedule.remove("Bob", standup));
+        Assert.assertEquals(blocks, schedule.getBlockCount());
+        Assert.assertEquals(Sets.newHashSet("Alice"), schedule.getBusy(new Interval(far, far + day)));
+        pool.shutdown();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testScheduleIsChangedThroughOwner() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            final ResourceSchedule<String> schedule = new ResourceSchedule<>(ImmutableMap.of(
+                    "Alice", Lists.newArrayList(breakfast)), pool);
+            schedule.getSchedule("Alice").add(lunch);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBusyRandomly() throws Exception {
+        final Random random = new Random(42);
+        final Map<Integer, List<Activity>> activities = new LinkedHashMap<>();
+        for (int resource = 0; resource < 50; resource++) {
+            final List<Activity> list = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final long start = random.nextInt(10000);
+                list.add(new Activity(start, start + random.nextInt(300), "Activity " + i));
+            }
+            activities.put(resource, list);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final ResourceSchedule<Integer> schedule = new ResourceSchedule<>(activities, pool);
+        for (int i = 0; i < 200; i++) {
+            final int resource = random.nextInt(60);
+            if (random.nextBoolean() && activities.containsKey(resource) && !activities.get(resource).isEmpty()) {
+                final List<Activity> list = activities.get(resource);
+                Assert.assertTrue(schedule.remove(resource, list.remove(random.nextInt(list.size()))));
+            } else {
+                final long start = random.nextInt(10000);
+                final Activity activity = new Activity(start, start + random.nextInt(300), "Added " + i);
+                if (!activities.containsKey(resource)) {
+                    activities.put(resource, new ArrayList<Activity>());
+                }
+                activities.get(resource).add(activity);
+                schedule.add(resource, activity);
+            }
+        }
+        // the occurrences of the recurrences are expected like the activities
+        final Random recurring = new Random(7);
+        Recurrence removed = null;
+        for (int i = 0; i < 30; i++) {
+            final int resource = recurring.nextInt(60);
+            final long start = recurring.nextInt(1000);
+            final Recurrence recurrence = new Recurrence(new Activity(start, start + recurring.nextInt(300), "Recurring " + i),
+                    new Duration(200 + recurring.nextInt(1300)), 1 + recurring.nextInt(10));
+            schedule.add(resource, recurrence);
+            if (i % 3 == 0) {
+                removed = recurrence;
+                Assert.assertTrue(schedule.remove(resource, recurrence));
+            } else {
+                if (!activities.containsKey(resource)) {
+                    activities.put(resource, new ArrayList<Activity>());
+                }
+                activities.get(resource).addAll(recurrence.getOccurrences(new Interval(0, 20000)));
+            }
+        }
+        Assert.assertFalse(schedule.remove(0, removed));
+
+        for (int i = 0; i < 200; i++) {
+            final long start = random.nextInt(10500) - 250;
+            final Interval window = new Interval(start, start + 1 + random.nextInt(200));
+            final Set<Integer> busy = new HashSet<>();
+            final Set<Integer> throughout = new HashSet<>();
+            final Map<Integer, List<Activity>> clashes = new HashMap<>();
+            final Activity candidate = new Activity(window.getStartMillis(), window.getEndMillis() - 1, null);
+            for (Map.Entry<Integer, List<Activity>> entry : activities.entrySet()) {
+                final boolean[] covered = new boolean[(int) window.toDurationMillis()];
+                for (Activity activity : entry.getValue()) {
+                    if (activity.getStartMillis() <= candidate.getEndMillis() && activity.getEndMillis() >= candidate.getStartMillis()) {
+                        busy.add(entry.getKey());
+                        if (!clashes.containsKey(entry.getKey())) {
+                            clashes.put(entry.getKey(), new ArrayList<Activity>());
+                        }
+                        clashes.get(entry.getKey()).add(activity);
+                        for (long t = Math.max(activity.getStartMillis(), candidate.getStartMillis());
+                             t <= Math.min(activity.getEndMillis(), candidate.getEndMillis()); t++) {
+                            covered[(int) (t - candidate.getStartMillis())] = true;
+                        }
+                    }
+                }
+                if (!Sets.newHashSet(Booleans.asList(covered)).contains(false)) {
+                    throughout.add(entry.getKey());
+                }
+            }
+
+            Assert.assertEquals(busy, schedule.getBusy(window));
+            Assert.assertEquals(throughout, schedule.getBusyThroughout(window));
+            Assert.assertEquals(Sets.difference(activities.keySet(), busy), schedule.getFree(window));
+            final Map<Integer, List<Activity>> found = schedule.getClashes(candidate);
+            Assert.assertEquals(clashes.keySet(), found.keySet());
+            for (Integer resource : clashes.keySet()) {
+                Assert.assertEquals(new HashSet<>(clashes.get(resource)), new HashSet<>(found.get(resource)));
+            }
+        }
+        pool.shutdown();
+    }
+}
@@ -1,6 +1,8 @@
 package mcgrey.app.test.clashing;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import junit.framework.Assert;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
@@ -9,7 +11,20 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created with IntelliJ IDEA.
@@ -60,16 +75,431 @@ public class ScheduleTest {
 
     }
 
+    @Test
+    public void testGetSlotsBySweep() {
+        final List<Activity> activities = randomActivities(new Random(42), 500, 100000, 2000);
+        activities.add(new Activity(new Instant(500), new Instant(700), "Twin"));
+        activities.add(new Activity(new Instant(500), new Instant(700), "Other twin"));
+        final Schedule schedule = new Schedule(activities);
+
+        for (long size : new long[]{1, 10, 333, 5000, 200000}) {
+            final Duration slotSize = new Duration(size);
+            assertSameLayout(schedule.getSlotsBy(slotSize, Schedule.Engine.TREE),
+                    schedule.getSlotsBy(slotSize, Schedule.Engine.SWEEP));
+        }
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        final Random random = new Random(11);
+        final List<Activity> activities = randomActivities(random, 400, 50000, 1000);
+        final Schedule schedule = new Schedule(activities);
+        final Duration slotSize = new Duration(100);
+
+        for (int i = 0; i < 50; i++) {
+            if (random.nextBoolean()) {
+                final Activity activity = randomActivities(random, 1, 60000, 1000).get(0);
+                final Activity added = new Activity(activity.getInterval().getStart(), activity.getInterval().getEnd(), "Added " + i);
+                schedule.add(added);
+                activities.add(added);
+            } else {
+                final Activity removed = activities.remove(random.nextInt(activities.size()));
+                Assert.assertTrue(schedule.remove(removed));
+                Assert.assertFalse(schedule.remove(removed));
+            }
+
+            final Schedule rebuilt = new Schedule(activities);
+            for (Schedule.Engine engine : Schedule.Engine.values()) {
+                assertSameLayout(rebuilt.getSlotsBy(slotSize), schedule.getSlotsBy(slotSize, engine));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalLayout() {
+        final Random random = new Random(5);
+        final List<Activity> activities = randomActivities(random, 300, 100000, 800);
+        final Schedule schedule = new Schedule(activities);
+        final Duration slotSize = new Duration(250);
+        schedule.getSlotsBy(slotSize);
+
+        for (int i = 0; i < 200; i++) {
+            if (random.nextBoolean()) {
+                // Mostly inside of the schedule, sometimes before its start or after its end
+                final long start = random.nextInt(104000) - 2000;
+                final Activity added = new Activity(new Instant(start), new Instant(start + random.nextInt(3000)), "Added " + i);
+                schedule.add(added);
+                activities.add(added);
+            } else {
+                schedule.remove(activities.remove(random.nextInt(activities.size())));
+            }
+
+            final Schedule.ScheduleLayout kept = schedule.getSlotsBy(slotSize);
+            assertSameLayout(new Schedule(activities).getSlotsBy(slotSize), kept);
+            Assert.assertSame("The kept layout must be reused.", kept.getTimeSlots().get(0), schedule.getSlotsBy(slotSize).getTimeSlots().get(0));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testKeptLayoutIsReadOnly() {
+        final Schedule schedule = new Schedule(Lists.newArrayList(
+                new Activity(new Instant(0), new Instant(99), "Lunch"), new Activity(new Instant(0), new Instant(15), "Tea")));
+        final Schedule.TimeSlot slot = schedule.getSlotsBy(new Duration(15)).getOccupiedTimeSlots().get(0);
+        slot.getMembers().clear();
+    }
+
+    @Test
+    public void testIncrementalLayoutKeepsOtherGroups() {
+        final Activity breakfast = new Activity(new Instant(0), new Instant(90), "Breakfast");
+        final Activity lunch = new Activity(new Instant(500), new Instant(590), "Lunch");
+        final Activity dinner = new Activity(new Instant(1000), new Instant(1090), "Dinner");
+        final Schedule schedule = new Schedule(Lists.newArrayList(breakfast, lunch, dinner));
+        final Duration slotSize = new Duration(100);
+
+        final Schedule.ScheduleLayout before = schedule.getSlotsBy(slotSize);
+        final Schedule.TimeSlot breakfastSlot = before.getTimeSlots().get(0);
+        final Schedule.TimeSlot lunchSlot = before.getTimeSlots().get(5);
+
+        schedule.add(new Activity(new Instant(520), new Instant(540), "Tea"));
+        final Schedule.ScheduleLayout after = schedule.getSlotsBy(slotSize);
+
+        Assert.assertSame(breakfastSlot, after.getTimeSlots().get(0));
+        Assert.assertNotSame(lunchSlot, after.getTimeSlots().get(5));
+        Assert.assertEquals(1, lunchSlot.getMembers().size());
+        Assert.assertEquals(2, after.getTimeSlots().get(5).getMembers().size());
+    }
+
+    @Test
+    public void testGetSlotsByInParallel() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final Random random = new Random(17);
+            final List<Activity> activities = new ArrayList<>();
+            // Separate clash groups with a long activity that connects some of them
+            for (int group = 0; group < 40; group++) {
+                for (Activity activity : randomActivities(random, 20, 1000, 300)) {
+                    final long start = group * 2000 + activity.getInterval().getStartMillis();
+                    activities.add(new Activity(new Instant(start), new Instant(start + activity.getInterval().toDurationMillis()),
+                            group + " " + activity.getName()));
+                }
+            }
+            activities.add(new Activity(new Instant(10000), new Instant(30000), "Long"));
+            final Schedule schedule = new Schedule(activities);
+
+            for (long size : new long[]{7, 100, 999, 5000, 100000}) {
+                final Duration slotSize = new Duration(size);
+                for (Schedule.Engine engine : Schedule.Engine.values()) {
+                    assertSameLayout(schedule.getSlotsBy(slotSize, Schedule.Engine.TREE),
+                            schedule.getSlotsBy(slotSize, engine, pool));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetSlotsByWindow() {
+        final Random random = new Random(17);
+        final List<Activity> activities = randomActivities(random, 500, 100000, 2000);
+        activities.add(new Activity(new Instant(20000), new Instant(70000), "Long"));
+        final Schedule schedule = new Schedule(activities);
+        final long origin = schedule.getSlotsBy(new Duration(1)).getTimeSlots().get(0).getInterval().getStartMillis();
+
+        for (long size : new long[]{1, 10, 333, 5000}) {
+            final Duration slotSize = new Duration(size);
+            final List<Schedule.TimeSlot> full = schedule.getSlotsBy(slotSize, Schedule.Engine.TREE).getTimeSlots();
+
+            for (int i = 0; i < 20; i++) {
+                final long start = random.nextInt(110000) - 5000;
+                final Interval window = new Interval(start, start + 1 + random.nextInt(10000));
+
+                // The slots of the full layout that overlap the window and their members
+                final List<Schedule.TimeSlot> slots = new ArrayList<>();
+                final Set<Schedule.ActivityBar> bars = new TreeSet<>();
+                for (Schedule.TimeSlot slot : full) {
+                    if (slot.getInterval().overlaps(window)) {
+                        slots.add(slot);
+                        bars.addAll(slot.getMembers());
+                    }
+                }
+
+                final Schedule.ScheduleLayout layout = schedule.getSlotsBy(slotSize, window);
+                assertSameLayout(new Schedule.ScheduleLayout(slotSize, slots, bars), layout);
+            }
+        }
+
+        Assert.assertTrue(schedule.getSlotsBy(new Duration(10), new Interval(origin - 100, origin)).getTimeSlots().isEmpty());
+        Assert.assertTrue(schedule.getSlotsBy(new Duration(10), new Interval(origin + 5, origin + 5)).getTimeSlots().isEmpty());
+    }
+
+    @Test
+    public void testGetClashes() {
+        final Activity lunch = new Activity(new Instant(0), new Instant(99), "Lunch");
+        final Activity tea = new Activity(new Instant(0), new Instant(15), "Tea");
+        final Activity meeting = new Activity(new Instant(50), new Instant(199), "Meeting");
+        final Schedule schedule = new Schedule(Lists.newArrayList(lunch, tea, meeting));
+
+        final Activity call = new Activity(new Instant(99), new Instant(120), "Call");
+        Assert.assertEquals(Sets.newHashSet(lunch, meeting), Sets.newHashSet(schedule.getClashes(call)));
+        Assert.assertTrue(schedule.clashes(call));
+        Assert.assertEquals(2, schedule.countClashes(call));
+
+        final Activity dinner = new Activity(new Instant(200), new Instant(299), "Dinner");
+        Assert.assertTrue(schedule.getClashes(dinner).isEmpty());
+        Assert.assertFalse(schedule.clashes(dinner));
+        Assert.assertEquals(0, schedule.countClashes(dinner));
+        Assert.assertEquals("Tea clashes with Lunch and itself.", 2, schedule.countClashes(tea));
+    }
+
+    @Test
+    public void testGetClashesBatch() {
+        final Random random = new Random(61);
+        final List<Activity> activities = randomActivities(random, 500, 100000, 2000);
+        final Schedule schedule = new Schedule(activities);
+
+        // Runs of overlapping candidates, some long, and lone ones
+        final List<Activity> candidates = new ArrayList<>();
+        long start = -1000;
+        for (int i = 0; i < 1000; i++) {
+            start += i % 50 == 0 ? 3000 : random.nextInt(100);
+            final long end = start + (i % 7 == 0 ? random.nextInt(3000) : random.nextInt(50));
+            candidates.add(new Activity(new Instant(start), new Instant(end), "Candidate " + i));
+        }
+
+        final List<List<Activity>> clashes = schedule.getClashes(candidates);
+        Assert.assertEquals(candidates.size(), clashes.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            final Activity candidate = candidates.get(i);
+            final Set<Activity> expected = new HashSet<>();
+            for (Activity activity : activities) {
+                if (activity.getStartMillis() <= candidate.getEndMillis() && activity.getEndMillis() >= candidate.getStartMillis()) {
+                    expected.add(activity);
+                }
+            }
+            final Set<Activity> actual = new HashSet<>();
+            actual.addAll(clashes.get(i));
+            Assert.assertEquals(candidate.toString(), expected, actual);
+            Assert.assertEquals(expected.size(), clashes.get(i).size());
+            Assert.assertEquals(expected.size(), schedule.countClashes(candidate));
+            Assert.assertEquals(!expected.isEmpty(), schedule.clashes(candidate));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetClashesRejectsUnsortedCandidates() {
+        final Schedule schedule = new Schedule(Lists.newArrayList(new Activity(new Instant(0), new Instant(99), "Lunch")));
+        schedule.getClashes(Lists.newArrayList(
+                new Activity(new Instant(10), new Instant(20), "Call"),
+                new Activity(new Instant(5), new Instant(15), "Other call")));
+    }
+
+    @Test
+    public void testGetSlotsByDerived() {
+        final List<Activity> activities = randomActivities(new Random(51), 500, 100000, 2000);
+        activities.add(new Activity(new Instant(500), new Instant(700), "Twin"));
+        activities.add(new Activity(new Instant(500), new Instant(700), "Other twin"));
+        activities.add(new Activity(new Instant(20000), new Instant(80000), "Long"));
+        final Schedule schedule = new Schedule(activities);
+        final Duration base = new Duration(50);
+
+        schedule.getSlotsBy(base);
+        for (long size : new long[]{50, 100, 150, 1000, 7000, 99950, 200000}) {
+            final Duration slotSize = new Duration(size);
+            assertSameLayout(new Schedule(activities).getSlotsBy(slotSize, Schedule.Engine.SWEEP), schedule.getSlotsBy(slotSize));
+        }
+
+        // The base layout is kept and updated, the derived ones follow the changes
+        final Activity added = new Activity(new Instant(99000), new Instant(130000), "Added");
+        schedule.add(added);
+        activities.add(added);
+        for (long size : new long[]{50, 1000, 7000, 200000}) {
+            final Duration slotSize = new Duration(size);
+            assertSameLayout(new Schedule(activities).getSlotsBy(slotSize, Schedule.Engine.SWEEP), schedule.getSlotsBy(slotSize));
+        }
+    }
+
+    @Test
+    public void testGetSlotsBySparse() {
+        final Activity breakfast = new Activity(new Instant(0), new Instant(9), "Breakfast");
+        final Activity dinner = new Activity(new Instant(1000000), new Instant(1000010), "Dinner");
+        final Schedule schedule = new Schedule(Lists.newArrayList(breakfast, dinner));
+
+        for (Schedule.Engine engine : Schedule.Engine.values()) {
+            final Schedule.ScheduleLayout layout = schedule.getSlotsBy(new Duration(10), engine);
+            Assert.assertEquals(100001, layout.getTimeSlots().size());
+            Assert.assertEquals(2, layout.getOccupiedTimeSlots().size());
+
+            Assert.assertSame(layout.getOccupiedTimeSlots().get(0), layout.getTimeSlot(0));
+            Assert.assertSame(layout.getOccupiedTimeSlots().get(1), layout.getTimeSlot(new Instant(1000005)));
+            Assert.assertSame(layout.getTimeSlot(100000), layout.getTimeSlots().get(100000));
+
+            // The empty slots are created on access
+            final Schedule.TimeSlot empty = layout.getTimeSlot(new Instant(500005));
+            Assert.assertEquals(new Interval(500000, 500010), empty.getInterval());
+            Assert.assertTrue(empty.getMembers().isEmpty());
+            Assert.assertEquals(new Interval(10, 20), layout.getTimeSlots().get(1).getInterval());
+
+            Assert.assertNull(layout.getTimeSlot(new Instant(-1)));
+            Assert.assertNull(layout.getTimeSlot(new Instant(1000000 + 10)));
+        }
+    }
+
+    @Test
+    public void testRecurrences() {
+        final Random random = new Random(23);
+        final List<Activity> activities = randomActivities(random, 300, 100000, 1000);
+        final List<Recurrence> recurrences = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final long start = random.nextInt(20000);
+            final Activity first = new Activity(start, start + 100 + random.nextInt(900), "Standup " + i);
+            recurrences.add(new Recurrence(first, new Duration(5000 + random.nextInt(5000)), 5 + random.nextInt(10))
+                    .except(new Instant(start + 1)) // not an occurrence, ignored
+                    .except(new Instant(start)));
+        }
+
+        final Schedule schedule = new Schedule(activities, recurrences);
+        final List<Activity> expanded = new ArrayList<>(activities);
+        for (Recurrence recurrence : recurrences) {
+            expanded.addAll(recurrence.getOccurrences(new Interval(0, 1000000)));
+        }
+        final Schedule materialized = new Schedule(expanded);
+
+        for (long size : new long[]{10, 333}) {
+            final Duration slotSize = new Duration(size);
+            for (Schedule.Engine engine : Schedule.Engine.values()) {
+                assertSameLayout(materialized.getSlotsBy(slotSize, engine), schedule.getSlotsBy(slotSize, engine));
+            }
+            final Interval window = new Interval(40000, 60000);
+            assertSameLayout(materialized.getSlotsBy(slotSize, window), schedule.getSlotsBy(slotSize, window));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            final long start = random.nextInt(110000) - 5000;
+            final Activity candidate = new Activity(start, start + random.nextInt(2000), "Candidate");
+            Assert.assertEquals(new HashSet<>(materialized.getClashes(candidate)), new HashSet<>(schedule.getClashes(candidate)));
+            Assert.assertEquals(materialized.countClashes(candidate), schedule.countClashes(candidate));
+        }
+        Assert.assertEquals(Iterables.size(materialized.getClashGroups()), Iterables.size(schedule.getClashGroups()));
+
+        // The kept layout is updated around an added activity, the occurrences stay out of the tree
+        final Duration slotSize = new Duration(100);
+        schedule.getSlotsBy(slotSize);
+        final Activity added = new Activity(50000, 51000, "Added");
+        schedule.add(added);
+        materialized.add(added);
+        assertSameLayout(materialized.getSlotsBy(slotSize, Schedule.Engine.TREE), schedule.getSlotsBy(slotSize));
+
+        final long version = schedule.getVersion();
+        Assert.assertTrue(schedule.remove(recurrences.get(0)));
+        Assert.assertFalse(schedule.remove(recurrences.get(0)));
+        schedule.add(recurrences.get(0));
+        Assert.assertEquals(version + 2, schedule.getVersion());
+        assertSameLayout(materialized.getSlotsBy(slotSize, Schedule.Engine.TREE), schedule.getSlotsBy(slotSize));
+
+        // Only the recurrences
+        final Schedule recurring = new Schedule(Collections.<Activity>emptyList(), recurrences);
+        final Schedule occurrences = new Schedule(expanded.subList(activities.size(), expanded.size()));
+        assertSameLayout(occurrences.getSlotsBy(slotSize), recurring.getSlotsBy(slotSize));
+        assertSameLayout(occurrences.getSlotsBy(slotSize, new Interval(20000, 30000)),
+                recurring.getSlotsBy(slotSize, new Interval(20000, 30000)));
+    }
+
+    static List<Activity> randomActivities(Random random, int count, int span, int maxDuration) {
+        final List<Activity> activities = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final long start = random.nextInt(span);
+            final long end = start + random.nextInt(maxDuration);
+            activities.add(new Activity(new Instant(start), new Instant(end), "Activity " + i));
+        }
+        return activities;
+    }
+
+    static void assertSameLayout(Schedule.ScheduleLayout expected, Schedule.ScheduleLayout actual) {
+        Assert.assertEquals(expected.getTimeSlotSize(), actual.getTimeSlotSize());
+
+        final List<Schedule.TimeSlot> expectedSlots = expected.getTimeSlots();
+        final List<Schedule.TimeSlot> actualSlots = actual.getTimeSlots();
+        Assert.assertEquals(expectedSlots.size(), actualSlots.size());
+        for (int i = 0; i < expectedSlots.size(); i++) {
+            Assert.assertEquals(expectedSlots.get(i).getInterval(), actualSlots.get(i).getInterval());
+            Assert.assertEquals(describe(expectedSlots.get(i).getMembers()), describe(actualSlots.get(i).getMembers()));
+        }
+
+        Assert.assertEquals(describe(expected.getActivityBars()), describe(actual.getActivityBars()));
+    }
+
+    private static Set<String> describe(Collection<Schedule.ActivityBar> bars) {
+        final Set<String> result = new TreeSet<>();
+        for (Schedule.ActivityBar bar : bars) {
+            result.add(bar.toString());
+        }
+        return result;
+    }
+
     @Test
     public void testCreateSlot() throws Exception {
-        final Schedule.TimeSlot slot = Schedule.createTimeSlot(new Interval(0, 99));
+        final Schedule.LayoutContext context = new Schedule.LayoutContext();
+        final Schedule.TimeSlot slot = context.createTimeSlot(new Interval(0, 99));
         Assert.assertNotNull("The time slot must be created.", slot);
 
-        final Schedule.TimeSlot sameSlot = Schedule.createTimeSlot(new Interval(0, 99));
+        final Schedule.TimeSlot sameSlot = context.createTimeSlot(new Interval(0, 99));
         Assert.assertSame("It must be the same slot since it is defined with the same interval.", slot, sameSlot);
 
-        final Schedule.TimeSlot newSlot = Schedule.createTimeSlot(new Interval(100, 199));
+        final Schedule.TimeSlot newSlot = context.createTimeSlot(new Interval(100, 199));
         Assert.assertNotSame("It must be another slot since it is defined with the different interval.", slot, newSlot);
+
+        final Schedule.TimeSlot otherSlot = new Schedule.LayoutContext().createTimeSlot(new Interval(0, 99));
+        Assert.assertNotSame("Layout runs must not share the time slots.", slot, otherSlot);
+    }
+
+    @Test
+    public void testGetSlotsByConcurrently() throws Exception {
+        final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        final Duration slotSize = new Duration(50);
+
+        final List<Schedule> schedules = new ArrayList<>();
+        final List<Schedule.ScheduleLayout> expected = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Schedule schedule = new Schedule(randomActivities(new Random(i), 300, 20000, 500));
+            schedules.add(schedule);
+            expected.add(schedule.getSlotsBy(slotSize));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch startSignal = new CountDownLatch(1);
+            final List<Future<List<Schedule.ScheduleLayout>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final Schedule own = schedules.get(i);
+                final Schedule shared = schedules.get(0);
+                final Schedule.Engine engine = Schedule.Engine.values()[i % Schedule.Engine.values().length];
+                futures.add(executor.submit(new Callable<List<Schedule.ScheduleLayout>>() {
+                    @Override
+                    public List<Schedule.ScheduleLayout> call() throws Exception {
+                        startSignal.await();
+
+                        final List<Schedule.ScheduleLayout> layouts = new ArrayList<>();
+                        for (int round = 0; round < 10; round++) {
+                            layouts.add(own.getSlotsBy(slotSize, engine));
+                            layouts.add(shared.getSlotsBy(slotSize, engine));
+                        }
+                        return layouts;
+                    }
+                }));
+            }
+            startSignal.countDown();
+
+            for (int i = 0; i < threads; i++) {
+                final List<Schedule.ScheduleLayout> layouts = futures.get(i).get(1, TimeUnit.MINUTES);
+                for (int round = 0; round < layouts.size(); round += 2) {
+                    assertSameLayout(expected.get(i), layouts.get(round));
+                    assertSameLayout(expected.get(0), layouts.get(round + 1));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     @Test
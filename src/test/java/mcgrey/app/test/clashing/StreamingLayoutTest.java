@@ -0,0 +1,128 @@
+package mcgrey.app.test.clashing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class StreamingLayoutTest {
+    @Test
+    public void testLayout() throws Exception {
+        final Random random = new Random(3);
+        final List<Activity> activities = ScheduleTest.randomActivities(random, 500, 100000, 2000);
+        activities.add(new Activity(new Instant(500), new Instant(700), "Twin"));
+        activities.add(new Activity(new Instant(500), new Instant(900), "Between"));
+        activities.add(new Activity(new Instant(500), new Instant(700), "Other twin"));
+        activities.add(new Activity(new Instant(50000), new Instant(150000), "Long"));
+        final Schedule schedule = new Schedule(activities);
+
+        // Sorted by start only, the order of the activities with the same start is kept
+        final List<Activity> sorted = new Ordering<Activity>() {
+            @Override
+            public int compare(Activity left, Activity right) {
+                return Long.compare(left.getInterval().getStartMillis(), right.getInterval().getStartMillis());
+            }
+        }.sortedCopy(activities);
+
+        for (long size : new long[]{1, 10, 333, 5000, 200000}) {
+            final Duration slotSize = new Duration(size);
+            final Schedule.ScheduleLayout expected = schedule.getSlotsBy(slotSize);
+
+            final List<Schedule.TimeSlot> slots = new ArrayList<>();
+            final List<Schedule.ActivityBar> bars = new ArrayList<>();
+            final Set<String> emitted = new TreeSet<>();
+            StreamingLayout.layout(sorted.iterator(), slotSize, new StreamingLayout.Listener() {
+                @Override
+                public void timeSlot(Schedule.TimeSlot slot) {
+                    slots.add(slot);
+                }
+
+                @Override
+                public void activityBar(Schedule.ActivityBar bar) {
+                    bars.add(bar);
+                    // the metrics must be final when the bar is emitted
+                    emitted.add(bar.toString());
+                }
+            });
+
+            ScheduleTest.assertSameLayout(expected, new Schedule.ScheduleLayout(slotSize, slots, bars));
+            Assert.assertEquals(expected.getActivityBars().size(), emitted.size());
+            for (Schedule.ActivityBar bar : expected.getActivityBars()) {
+                Assert.assertTrue(bar.toString(), emitted.contains(bar.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void testLayoutHoldsOpenActivities() throws Exception {
+        // A long stream of short activities, at most three of them are open at a time
+        final Iterator<Activity> activities = new Iterator<Activity>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < 100000;
+            }
+
+            @Override
+            public Activity next() {
+                final long start = next * 10L;
+                return new Activity(new Instant(start), new Instant(start + 25), "Activity " + next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final int[] counts = new int[2];
+        final int[] held = new int[1];
+        final StreamingLayout[] layout = new StreamingLayout[1];
+        layout[0] = new StreamingLayout(new Duration(10), new StreamingLayout.Listener() {
+            @Override
+            public void timeSlot(Schedule.TimeSlot slot) {
+                counts[0]++;
+                held[0] = Math.max(held[0], layout[0].held());
+            }
+
+            @Override
+            public void activityBar(Schedule.ActivityBar bar) {
+                counts[1]++;
+            }
+        });
+        while (activities.hasNext()) {
+            layout[0].add(activities.next());
+        }
+        layout[0].finish();
+
+        Assert.assertEquals(100001, counts[0]);
+        Assert.assertEquals(100000, counts[1]);
+        Assert.assertTrue("Held " + held[0], held[0] < 20);
+        Assert.assertEquals(0, layout[0].held());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLayoutRejectsUnsortedActivities() throws Exception {
+        StreamingLayout.layout(Lists.newArrayList(
+                new Activity(new Instant(10), new Instant(20), "Lunch"),
+                new Activity(new Instant(0), new Instant(5), "Breakfast")).iterator(), new Duration(10), new StreamingLayout.Listener() {
+            @Override
+            public void timeSlot(Schedule.TimeSlot slot) {
+            }
+
+            @Override
+            public void activityBar(Schedule.ActivityBar bar) {
+            }
+        });
+    }
+}